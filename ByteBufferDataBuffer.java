@@ -0,0 +1,104 @@
+import java.awt.image.DataBuffer;
+import java.nio.ByteBuffer;
+
+/**
+ * A DataBuffer of unsigned bytes that reads and writes a ByteBuffer instead
+ * of a byte[].  This lets a BufferedImage (and so an EzImage) sit directly
+ * on top of a memory-mapped file or a direct buffer without copying the
+ * pixels onto the heap.
+ *
+ * release() drops this data buffer's reference to the ByteBuffer.  The
+ * direct or mapped memory is not freed then: that is left to the garbage
+ * collector, which frees it once no other reference to the buffer remains,
+ * so a thread still inside getElem or setElem never reads freed memory.
+ * Any access that starts after release returns throws an
+ * IllegalStateException.
+ *
+ * @author shreya-va
+ */
+class ByteBufferDataBuffer extends DataBuffer
+{
+    // An empty buffer put in place of the samples by release(), so that
+    // every access fails its bounds check without a test of its own.
+    private static final ByteBuffer RELEASED = ByteBuffer.allocate(0);
+
+    private final boolean direct;
+    private volatile ByteBuffer buffer;
+
+    /**
+     * Constructs a data buffer over the first size bytes of the buffer,
+     * starting at its current position.
+     *
+     * @param  buffer  the bytes holding the samples
+     * @param  size    the number of samples
+     */
+    ByteBufferDataBuffer(ByteBuffer buffer, int size)
+    {
+        super(TYPE_BYTE, size);
+        ByteBuffer view = buffer.slice();
+        view.limit(size);
+        this.direct = buffer.isDirect();
+        this.buffer = view;
+    }
+
+    /**
+     * Returns the buffer holding the samples, positioned at the first one.
+     *
+     * @return   a duplicate of the underlying buffer
+     */
+    ByteBuffer getBuffer()
+    {
+        ByteBuffer samples = buffer;
+        if (samples == RELEASED)
+            throw released();
+        return samples.duplicate();
+    }
+
+    /**
+     * Returns true if the samples live outside the Java heap.
+     *
+     * @return   true for direct and mapped buffers
+     */
+    boolean isDirect()
+    {
+        return direct;
+    }
+
+    /**
+     * Drops the reference to the samples, leaving their memory to the
+     * garbage collector.  The data buffer cannot be used afterwards.
+     */
+    void release()
+    {
+        buffer = RELEASED;
+    }
+
+    private static IllegalStateException released()
+    {
+        return new IllegalStateException("image has been released");
+    }
+
+    public int getElem(int bank, int i)
+    {
+        try
+        {
+            return buffer.get(i) & 0xFF;
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            throw buffer == RELEASED ? released() : e;
+        }
+    }
+
+    public void setElem(int bank, int i, int val)
+    {
+        try
+        {
+            buffer.put(i, (byte)val);
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            throw buffer == RELEASED ? released() : e;
+        }
+    }
+}
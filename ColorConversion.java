@@ -0,0 +1,359 @@
+import java.util.stream.IntStream;
+
+/**
+ * The ColorConversion class converts planar RGB pixels to and from other
+ * color spaces, so that filters can work in whichever space suits them.
+ * Every space is held as three bands of 0-255 ints, in the same
+ * [band][row*width + column] layout as EzImage.getPixelsPlanar:
+ * <ul>
+ * <li>YCBCR: the full-range (JPEG) Y, Cb and Cr of ITU-R BT.601;</li>
+ * <li>HSV: hue in degrees (0-359), saturation and value (0-255);</li>
+ * <li>LAB: CIE L*a*b* under a D65 white, with L* scaled from 0-100 to
+ *     0-255 and 128 added to a* and b*.</li>
+ * </ul>
+ * A fourth (alpha) band, if present, is passed through unchanged.  Eight
+ * bits of L*a*b* are coarser than RGB for some saturated colors, which
+ * can move by several levels over a round trip.
+ *
+ * No conversion calls Math.pow per pixel.  YCbCr uses 16-bit fixed-point
+ * matrices and HSV uses integer arithmetic only.  Lab uses a table for the
+ * sRGB gamma curve, fixed-point matrices to XYZ, and a table for the cube
+ * root; going back it needs only multiplications and a table for the
+ * inverse gamma curve.  Pixels are converted in parallel.
+ *
+ * @author shreya-va
+ */
+public class ColorConversion
+{
+    // Color spaces.
+    public static final int YCBCR = -6001;
+    public static final int HSV = -6002;
+    public static final int LAB = -6003;
+
+    private static final int BITS = 16;
+    private static final int ONE = 1 << BITS;
+    private static final int HALF = 1 << (BITS - 1);
+
+    // Pixels per parallel task.
+    private static final int CHUNK = 1 << 14;
+
+    // BT.601 full range, 16-bit fixed point
+    private static final int YR = fix(0.299), YG = fix(0.587), YB = fix(0.114);
+    private static final int CBR = fix(-0.168736), CBG = fix(-0.331264);
+    private static final int CRG = fix(-0.418688), CRB = fix(-0.081312);
+    private static final int RCR = fix(1.402), GCB = fix(-0.344136);
+    private static final int GCR = fix(-0.714136), BCB = fix(1.772);
+
+    // sRGB to XYZ (D65), each row divided by the white point
+    private static final double[][] TO_XYZ = {
+        { 0.4124564 / 0.95047, 0.3575761 / 0.95047, 0.1804375 / 0.95047 },
+        { 0.2126729,           0.7151522,           0.0721750           },
+        { 0.0193339 / 1.08883, 0.1191920 / 1.08883, 0.9503041 / 1.08883 } };
+    private static final int[][] TO_XYZ_FIXED = new int[3][3];
+
+    // XYZ (D65, white-normalized) to linear sRGB
+    private static final double[][] FROM_XYZ = {
+        {  3.2404542 * 0.95047, -1.5371385, -0.4985314 * 1.08883 },
+        { -0.9692660 * 0.95047,  1.8760108,  0.0415560 * 1.08883 },
+        {  0.0556434 * 0.95047, -0.2040259,  1.0572252 * 1.08883 } };
+
+    // Tables: sRGB value to linear (0-65535), linear to sRGB value, and
+    // the Lab function f(t) for t from 0 to 1 in steps of 1/65535, times
+    // 65536.
+    private static final int[] LINEAR = new int[256];
+    private static final byte[] GAMMA = new byte[ONE];
+    private static final int[] CUBE_ROOT = new int[ONE];
+
+    static
+    {
+        for (int i = 0; i < 3; i++)
+            for (int j = 0; j < 3; j++)
+                TO_XYZ_FIXED[i][j] = fix(TO_XYZ[i][j]);
+        for (int v = 0; v < 256; v++)
+        {
+            double c = v / 255.0;
+            c = c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+            LINEAR[v] = (int)Math.round(c * (ONE - 1));
+        }
+        for (int i = 0; i < ONE; i++)
+        {
+            double c = i / (double)(ONE - 1);
+            c = c <= 0.0031308 ? 12.92 * c
+                               : 1.055 * Math.pow(c, 1 / 2.4) - 0.055;
+            GAMMA[i] = (byte)Math.round(c * 255);
+        }
+        double epsilon = 216.0 / 24389;
+        double kappa = 24389.0 / 27;
+        for (int i = 0; i < ONE; i++)
+        {
+            double t = i / (double)(ONE - 1);
+            double f = t > epsilon ? Math.cbrt(t) : (kappa * t + 16) / 116;
+            CUBE_ROOT[i] = (int)Math.round(f * ONE);
+        }
+    }
+
+    private static int fix(double v)
+    {
+        return (int)Math.round(v * ONE);
+    }
+
+    private static int clamp(int v)
+    {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+
+    /**
+     * Returns the bands of the image converted from RGB to the color space.
+     * Gray images are treated as RGB images with three equal bands.
+     *
+     * @param  image  the image to convert
+     * @param  space  YCBCR, HSV or LAB
+     * @return        an array of [3 or 4][height * width] values
+     */
+    public static int[][] fromImage(EzImage image, int space)
+    {
+        int[][] planes = image.getPixelsPlanar();
+        if (planes.length == 1)
+            planes = new int[][] { planes[0], planes[0], planes[0] };
+        return fromRgb(planes, space);
+    }
+
+    /**
+     * Returns a new color image made by converting the bands from the color
+     * space back to RGB.
+     *
+     * @param  planes  an array of [3 or 4][height * width] values in the
+     *                 color space
+     * @param  space   YCBCR, HSV or LAB
+     * @param  height  the height (in pixels) of the image
+     * @param  width   the width (in pixels) of the image
+     * @return         the image
+     */
+    public static EzImage toImage(int[][] planes, int space, int height,
+                                  int width)
+    {
+        return EzImage.fromPlanes(toRgb(planes, space), height, width);
+    }
+
+    /**
+     * Returns RGB bands converted to the color space.  The input is not
+     * changed.
+     *
+     * @param  rgb    an array of [3 or 4][n] red, green, blue (and alpha)
+     *                values in the range 0-255
+     * @param  space  YCBCR, HSV or LAB
+     * @return        a new array of [3 or 4][n] values in the color space
+     * @throws        IllegalArgumentException if the space is unknown or the
+     *                bands are missing or of different lengths
+     */
+    public static int[][] fromRgb(int[][] rgb, int space)
+    {
+        return convert(rgb, space, true);
+    }
+
+    /**
+     * Returns bands in the color space converted to RGB, clamped to 0-255.
+     * The input is not changed.
+     *
+     * @param  planes  an array of [3 or 4][n] values in the color space
+     * @param  space   YCBCR, HSV or LAB
+     * @return         a new array of [3 or 4][n] red, green, blue (and
+     *                 alpha) values
+     * @throws         IllegalArgumentException if the space is unknown or
+     *                 the bands are missing or of different lengths
+     */
+    public static int[][] toRgb(int[][] planes, int space)
+    {
+        return convert(planes, space, false);
+    }
+
+    private static int[][] convert(final int[][] in, final int space,
+                                   final boolean forward)
+    {
+        if (space != YCBCR && space != HSV && space != LAB)
+            throw new IllegalArgumentException("Invalid color space.");
+        if (in == null || (in.length != 3 && in.length != 4))
+            throw new IllegalArgumentException("Invalid number of bands.");
+        final int n = in[0].length;
+        for (int k = 1; k < in.length; k++)
+            if (in[k].length != n)
+                throw new IllegalArgumentException("band sizes do not match");
+
+        final int[][] out = new int[in.length][];
+        for (int k = 0; k < 3; k++)
+            out[k] = new int[n];
+        if (in.length == 4)
+            out[3] = in[3].clone();
+
+        IntStream.range(0, (n + CHUNK - 1) / CHUNK).parallel().forEach(c -> {
+            int from = c * CHUNK;
+            int to = Math.min(n, from + CHUNK);
+            switch (space)
+            {
+                case YCBCR:
+                    if (forward)
+                        rgbToYCbCr(in, out, from, to);
+                    else
+                        yCbCrToRgb(in, out, from, to);
+                    break;
+                case HSV:
+                    if (forward)
+                        rgbToHsv(in, out, from, to);
+                    else
+                        hsvToRgb(in, out, from, to);
+                    break;
+                default:
+                    if (forward)
+                        rgbToLab(in, out, from, to);
+                    else
+                        labToRgb(in, out, from, to);
+            }
+        });
+        return out;
+    }
+
+    private static void rgbToYCbCr(int[][] in, int[][] out, int from, int to)
+    {
+        int[] r = in[0], g = in[1], b = in[2];
+        for (int i = from; i < to; i++)
+        {
+            int y = YR * r[i] + YG * g[i] + YB * b[i];
+            int cb = CBR * r[i] + CBG * g[i] + HALF * b[i];
+            int cr = HALF * r[i] + CRG * g[i] + CRB * b[i];
+            out[0][i] = clamp((y + HALF) >> BITS);
+            out[1][i] = clamp(((cb + HALF) >> BITS) + 128);
+            out[2][i] = clamp(((cr + HALF) >> BITS) + 128);
+        }
+    }
+
+    private static void yCbCrToRgb(int[][] in, int[][] out, int from, int to)
+    {
+        int[] y = in[0], cb = in[1], cr = in[2];
+        for (int i = from; i < to; i++)
+        {
+            int l = (y[i] << BITS) + HALF;
+            int u = cb[i] - 128;
+            int v = cr[i] - 128;
+            out[0][i] = clamp((l + RCR * v) >> BITS);
+            out[1][i] = clamp((l + GCB * u + GCR * v) >> BITS);
+            out[2][i] = clamp((l + BCB * u) >> BITS);
+        }
+    }
+
+    private static void rgbToHsv(int[][] in, int[][] out, int from, int to)
+    {
+        int[] rs = in[0], gs = in[1], bs = in[2];
+        for (int i = from; i < to; i++)
+        {
+            int r = rs[i], g = gs[i], b = bs[i];
+            int max = Math.max(r, Math.max(g, b));
+            int min = Math.min(r, Math.min(g, b));
+            int delta = max - min;
+            int h = 0;
+            if (delta > 0)
+            {
+                if (max == r)
+                    h = (60 * (g - b) + (g >= b ? delta : -delta) / 2) / delta;
+                else if (max == g)
+                    h = 120 + (60 * (b - r) + (b >= r ? delta : -delta) / 2) / delta;
+                else
+                    h = 240 + (60 * (r - g) + (r >= g ? delta : -delta) / 2) / delta;
+                if (h < 0)
+                    h += 360;
+                else if (h >= 360)
+                    h -= 360;
+            }
+            out[0][i] = h;
+            out[1][i] = max == 0 ? 0 : (255 * delta + max / 2) / max;
+            out[2][i] = max;
+        }
+    }
+
+    private static void hsvToRgb(int[][] in, int[][] out, int from, int to)
+    {
+        int[] hs = in[0], ss = in[1], vs = in[2];
+        for (int i = from; i < to; i++)
+        {
+            int h = hs[i] % 360;
+            if (h < 0)
+                h += 360;
+            int s = clamp(ss[i]);
+            int v = clamp(vs[i]);
+            int sector = h / 60;
+            int f = h - sector * 60;
+            // v*(1-s), v*(1-s*f), v*(1-s*(1-f)) with s and f as fractions
+            int p = (v * (255 - s) + 127) / 255;
+            int q = (v * (255 * 60 - s * f) + 255 * 30) / (255 * 60);
+            int t = (v * (255 * 60 - s * (60 - f)) + 255 * 30) / (255 * 60);
+            int r, g, b;
+            switch (sector)
+            {
+                case 0:  r = v; g = t; b = p; break;
+                case 1:  r = q; g = v; b = p; break;
+                case 2:  r = p; g = v; b = t; break;
+                case 3:  r = p; g = q; b = v; break;
+                case 4:  r = t; g = p; b = v; break;
+                default: r = v; g = p; b = q;
+            }
+            out[0][i] = r;
+            out[1][i] = g;
+            out[2][i] = b;
+        }
+    }
+
+    private static void rgbToLab(int[][] in, int[][] out, int from, int to)
+    {
+        int[][] m = TO_XYZ_FIXED;
+        int[] rs = in[0], gs = in[1], bs = in[2];
+        for (int i = from; i < to; i++)
+        {
+            long r = LINEAR[clamp(rs[i])];
+            long g = LINEAR[clamp(gs[i])];
+            long b = LINEAR[clamp(bs[i])];
+            int fx = CUBE_ROOT[unit((m[0][0] * r + m[0][1] * g + m[0][2] * b) >> BITS)];
+            int fy = CUBE_ROOT[unit((m[1][0] * r + m[1][1] * g + m[1][2] * b) >> BITS)];
+            int fz = CUBE_ROOT[unit((m[2][0] * r + m[2][1] * g + m[2][2] * b) >> BITS)];
+            // L = 116 fy - 16, scaled by 255/100
+            long l = (116L * fy - 16L * ONE) * 255 / 100;
+            out[0][i] = clamp((int)((l + HALF) >> BITS));
+            out[1][i] = clamp((int)(((500L * (fx - fy) + HALF) >> BITS) + 128));
+            out[2][i] = clamp((int)(((200L * (fy - fz) + HALF) >> BITS) + 128));
+        }
+    }
+
+    private static int unit(long v)
+    {
+        return v < 0 ? 0 : (v >= ONE ? ONE - 1 : (int)v);
+    }
+
+    private static void labToRgb(int[][] in, int[][] out, int from, int to)
+    {
+        double[][] m = FROM_XYZ;
+        int[] ls = in[0], as = in[1], bs = in[2];
+        for (int i = from; i < to; i++)
+        {
+            double fy = (ls[i] * (100 / 255.0) + 16) / 116;
+            double fx = fy + (as[i] - 128) / 500.0;
+            double fz = fy - (bs[i] - 128) / 200.0;
+            double x = inverseF(fx);
+            double y = inverseF(fy);
+            double z = inverseF(fz);
+            out[0][i] = gamma(m[0][0] * x + m[0][1] * y + m[0][2] * z);
+            out[1][i] = gamma(m[1][0] * x + m[1][1] * y + m[1][2] * z);
+            out[2][i] = gamma(m[2][0] * x + m[2][1] * y + m[2][2] * z);
+        }
+    }
+
+    // The inverse of the Lab function f
+    private static double inverseF(double f)
+    {
+        return f > 6.0 / 29 ? f * f * f : (f - 16.0 / 116) * (3 * 36.0 / 841);
+    }
+
+    // Linear 0-1 to an sRGB value, through the table
+    private static int gamma(double c)
+    {
+        int i = (int)(c * (ONE - 1) + 0.5);
+        return GAMMA[i < 0 ? 0 : (i >= ONE ? ONE - 1 : i)] & 0xFF;
+    }
+}
@@ -0,0 +1,435 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * The ColorQuantizer class reduces an image to a palette of at most 256
+ * colors, so that it can be stored as an indexed PNG or GIF.
+ *
+ * The palette is built by median cut over a sample of the pixels: the box
+ * of sampled colors with the most pixels times the widest spread is cut in
+ * two at the median of its widest channel until there are enough boxes,
+ * and each box becomes the mean of its colors.
+ *
+ * Mapping a color to its nearest palette entry goes through an inverse
+ * color map: a table over colors cut to 5 bits per channel that is filled
+ * in the first time each cell is used, so the palette is searched at most
+ * once per cell instead of once per pixel.
+ *
+ * Three ways of choosing indices are offered.  NONE takes the nearest
+ * entry.  ORDERED adds an 8x8 Bayer threshold before the lookup, which
+ * needs no information from other pixels and so is fully parallel.
+ * FLOYD_STEINBERG spreads each pixel's error to its unprocessed
+ * neighbours.  Each row needs the error of the row above, but only up to
+ * one column ahead, so rows run in parallel as a wavefront: a row may
+ * process a column once the row above is two columns past it.
+ *
+ * Transparency is not kept; every pixel is treated as opaque.
+ *
+ * @author shreya-va
+ */
+public class ColorQuantizer
+{
+    // Dithering modes.
+    public static final int NONE = -7001;
+    public static final int ORDERED = -7002;
+    public static final int FLOYD_STEINBERG = -7003;
+
+    // Largest number of pixels looked at when building a palette.
+    private static final int SAMPLE_SIZE = 1 << 16;
+
+    // Bits per channel of the inverse color map.
+    private static final int CELL_BITS = 5;
+
+    private static final int[] BAYER = {
+         0, 32,  8, 40,  2, 34, 10, 42,
+        48, 16, 56, 24, 50, 18, 58, 26,
+        12, 44,  4, 36, 14, 46,  6, 38,
+        60, 28, 52, 20, 62, 30, 54, 22,
+         3, 35, 11, 43,  1, 33,  9, 41,
+        51, 19, 59, 27, 49, 17, 57, 25,
+        15, 47,  7, 39, 13, 45,  5, 37,
+        63, 31, 55, 23, 61, 29, 53, 21 };
+
+    private final int[] palette;
+    private final int[] inverse;
+
+    /**
+     * Constructs a quantizer for the given palette.
+     *
+     * @param  palette  between 1 and 256 colors packed as 0xRRGGBB
+     * @throws          IllegalArgumentException if the palette is empty or
+     *                  too large
+     */
+    public ColorQuantizer(int[] palette)
+    {
+        if (palette == null || palette.length < 1 || palette.length > 256)
+            throw new IllegalArgumentException(
+                    "palette must have 1 to 256 colors");
+        this.palette = new int[palette.length];
+        for (int i = 0; i < palette.length; i++)
+            this.palette[i] = palette[i] & 0xFFFFFF;
+        this.inverse = new int[1 << (3 * CELL_BITS)];
+        Arrays.fill(inverse, -1);
+    }
+
+    /**
+     * Returns a palette of at most the given number of colors for the
+     * image, built by median cut over a sample of its pixels.
+     *
+     * @param  image   the image to build a palette for
+     * @param  colors  the largest number of colors wanted, from 1 to 256
+     * @return         the palette, packed as 0xRRGGBB
+     */
+    public static int[] buildPalette(EzImage image, int colors)
+    {
+        if (colors < 1 || colors > 256)
+            throw new IllegalArgumentException("colors must be from 1 to 256");
+        int[] pixels = image.getPackedPixels();
+        int step = Math.max(1, pixels.length / SAMPLE_SIZE);
+        int[] sample = new int[(pixels.length + step - 1) / step];
+        for (int i = 0, j = 0; j < sample.length; i += step, j++)
+            sample[j] = pixels[i] & 0xFFFFFF;
+
+        ArrayList<int[]> boxes = new ArrayList<int[]>();
+        boxes.add(sample);
+        while (boxes.size() < colors)
+        {
+            // Cut the box with the largest pixel count times spread.
+            int best = -1;
+            long bestScore = 0;
+            for (int b = 0; b < boxes.size(); b++)
+            {
+                long score = (long)boxes.get(b).length
+                           * spread(boxes.get(b))[0];
+                if (score > bestScore)
+                {
+                    bestScore = score;
+                    best = b;
+                }
+            }
+            if (best < 0)
+                break;
+            int[] box = boxes.get(best);
+            int shift = spread(box)[1];
+            sortByChannel(box, shift);
+            int middle = box.length / 2;
+            int cut = (box[middle - 1] >> shift & 0xFF) == (box[middle] >> shift & 0xFF)
+                      ? split(box, middle, shift) : middle;
+            boxes.set(best, Arrays.copyOfRange(box, 0, cut));
+            boxes.add(Arrays.copyOfRange(box, cut, box.length));
+        }
+
+        int[] result = new int[boxes.size()];
+        for (int b = 0; b < result.length; b++)
+        {
+            long r = 0, g = 0, bl = 0;
+            int[] box = boxes.get(b);
+            for (int p : box)
+            {
+                r += p >> 16 & 0xFF;
+                g += p >> 8 & 0xFF;
+                bl += p & 0xFF;
+            }
+            int n = box.length;
+            result[b] = (int)((r + n / 2) / n) << 16
+                      | (int)((g + n / 2) / n) << 8 | (int)((bl + n / 2) / n);
+        }
+        return result;
+    }
+
+    // Returns { widest channel range, shift of that channel }.
+    private static int[] spread(int[] box)
+    {
+        int[] widest = { 0, 16 };
+        for (int shift = 16; shift >= 0; shift -= 8)
+        {
+            int min = 255, max = 0;
+            for (int p : box)
+            {
+                int c = p >> shift & 0xFF;
+                if (c < min)
+                    min = c;
+                if (c > max)
+                    max = c;
+            }
+            if (max - min > widest[0])
+            {
+                widest[0] = max - min;
+                widest[1] = shift;
+            }
+        }
+        return widest;
+    }
+
+    // Counting sort of the colors by one channel.
+    private static void sortByChannel(int[] box, int shift)
+    {
+        int[] start = new int[257];
+        for (int p : box)
+            start[(p >> shift & 0xFF) + 1]++;
+        for (int i = 1; i < 257; i++)
+            start[i] += start[i - 1];
+        int[] sorted = new int[box.length];
+        for (int p : box)
+            sorted[start[p >> shift & 0xFF]++] = p;
+        System.arraycopy(sorted, 0, box, 0, box.length);
+    }
+
+    // The boundary between channel values nearest the middle, so that
+    // equal values stay in one box.
+    private static int split(int[] box, int middle, int shift)
+    {
+        int value = box[middle] >> shift & 0xFF;
+        int low = middle;
+        while (low > 0 && (box[low - 1] >> shift & 0xFF) == value)
+            low--;
+        int high = middle;
+        while (high < box.length && (box[high] >> shift & 0xFF) == value)
+            high++;
+        if (low == 0)
+            return high;
+        if (high == box.length)
+            return low;
+        return middle - low <= high - middle ? low : high;
+    }
+
+    /**
+     * Returns the palette, packed as 0xRRGGBB.
+     *
+     * @return   a copy of the palette
+     */
+    public int[] getPalette()
+    {
+        return palette.clone();
+    }
+
+    /**
+     * Returns the index of the palette entry nearest the color.
+     *
+     * @param  r  the red value, 0-255
+     * @param  g  the green value, 0-255
+     * @param  b  the blue value, 0-255
+     * @return    the palette index
+     */
+    public int nearest(int r, int g, int b)
+    {
+        int shift = 8 - CELL_BITS;
+        int cell = (r >> shift) << (2 * CELL_BITS) | (g >> shift) << CELL_BITS
+                 | (b >> shift);
+        int index = inverse[cell];
+        if (index < 0)
+        {
+            // Search once for the centre of the cell.  Other threads may do
+            // the same at the same time; they all store the same answer.
+            int half = 1 << (shift - 1);
+            index = search((r >> shift << shift) + half,
+                           (g >> shift << shift) + half,
+                           (b >> shift << shift) + half);
+            inverse[cell] = index;
+        }
+        return index;
+    }
+
+    private int search(int r, int g, int b)
+    {
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < palette.length; i++)
+        {
+            int dr = (palette[i] >> 16 & 0xFF) - r;
+            int dg = (palette[i] >> 8 & 0xFF) - g;
+            int db = (palette[i] & 0xFF) - b;
+            int distance = 2 * dr * dr + 4 * dg * dg + 3 * db * db;
+            if (distance < bestDistance)
+            {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the image as an indexed BufferedImage over the palette, ready
+     * to be written as PNG or GIF.
+     *
+     * @param  image   the image to quantize
+     * @param  dither  NONE, ORDERED or FLOYD_STEINBERG
+     * @return         a TYPE_BYTE_INDEXED image
+     * @throws         IllegalArgumentException if the dither mode is unknown
+     */
+    public BufferedImage toIndexed(EzImage image, int dither)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] r = new byte[palette.length];
+        byte[] g = new byte[palette.length];
+        byte[] b = new byte[palette.length];
+        for (int i = 0; i < palette.length; i++)
+        {
+            r[i] = (byte)(palette[i] >> 16);
+            g[i] = (byte)(palette[i] >> 8);
+            b[i] = (byte)palette[i];
+        }
+        IndexColorModel colors = new IndexColorModel(8, palette.length, r, g, b);
+        BufferedImage result = new BufferedImage(width, height,
+                BufferedImage.TYPE_BYTE_INDEXED, colors);
+        byte[] data = ((DataBufferByte)result.getRaster().getDataBuffer()).getData();
+        int[] indices = indices(image, dither);
+        for (int i = 0; i < indices.length; i++)
+            data[i] = (byte)indices[i];
+        return result;
+    }
+
+    /**
+     * Returns a copy of the image with every pixel replaced by its palette
+     * color, to preview the result of quantizing.
+     *
+     * @param  image   the image to quantize
+     * @param  dither  NONE, ORDERED or FLOYD_STEINBERG
+     * @return         a color image using only palette colors
+     */
+    public EzImage apply(EzImage image, int dither)
+    {
+        int[] indices = indices(image, dither);
+        for (int i = 0; i < indices.length; i++)
+            indices[i] = 0xFF000000 | palette[indices[i]];
+        return EzImage.fromPackedPixels(indices, image.getHeight(),
+                                        image.getWidth(), false);
+    }
+
+    /**
+     * Returns the palette index chosen for every pixel, in row-major
+     * order.
+     *
+     * @param  image   the image to quantize
+     * @param  dither  NONE, ORDERED or FLOYD_STEINBERG
+     * @return         an array of [height * width] palette indices
+     */
+    public int[] indices(EzImage image, int dither)
+    {
+        if (dither != NONE && dither != ORDERED && dither != FLOYD_STEINBERG)
+            throw new IllegalArgumentException("Invalid dither mode.");
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] pixels = image.getPackedPixels();
+        if (dither == FLOYD_STEINBERG)
+        {
+            floydSteinberg(pixels, width, height);
+            return pixels;
+        }
+
+        // A threshold matrix spread over about one palette step.
+        final int spread = dither == ORDERED
+            ? Math.max(8, 256 / (int)Math.ceil(Math.cbrt(palette.length))) : 0;
+        IntStream.range(0, height).parallel().forEach(y -> {
+            for (int x = 0, i = y * width; x < width; x++, i++)
+            {
+                int p = pixels[i];
+                int t = spread == 0 ? 0
+                      : (BAYER[(y & 7) * 8 + (x & 7)] * spread >> 6) - spread / 2;
+                pixels[i] = nearest(clamp((p >> 16 & 0xFF) + t),
+                                    clamp((p >> 8 & 0xFF) + t),
+                                    clamp((p & 0xFF) + t));
+            }
+        });
+        return pixels;
+    }
+
+    /**
+     * Floyd-Steinberg error diffusion, replacing each packed pixel by its
+     * palette index.  Rows are claimed in order by the workers, and a row
+     * goes no further than two columns behind the row above.  The error for
+     * the next row is kept in a ring of buffers; a row reuses a buffer only
+     * after the row that last read it has finished.
+     */
+    private void floydSteinberg(final int[] pixels, final int width,
+                                final int height)
+    {
+        final int workers = Math.min(height,
+                Runtime.getRuntime().availableProcessors());
+        final int ring = 2 * workers + 2;
+        // Errors in sixteenths, three channels per column, with a spare
+        // column on each side.
+        final int[][] errors = new int[ring][3 * (width + 2)];
+        final AtomicIntegerArray done = new AtomicIntegerArray(height);
+        final AtomicInteger next = new AtomicInteger();
+
+        IntStream.range(0, workers).parallel().forEach(w -> {
+            int y;
+            while ((y = next.getAndIncrement()) < height)
+            {
+                if (y + 1 - ring >= 0)
+                    waitFor(done, y + 1 - ring, width);
+                int[] in = errors[y % ring];
+                int[] out = errors[(y + 1) % ring];
+                Arrays.fill(out, 0);
+                // Error carried to the right neighbour, in sixteenths.
+                int rightR = 0, rightG = 0, rightB = 0;
+                int ready = y == 0 ? width : 0;
+                for (int x = 0, i = y * width; x < width; x++, i++)
+                {
+                    if (ready < Math.min(width, x + 2))
+                        ready = waitFor(done, y - 1, Math.min(width, x + 2));
+                    int p = pixels[i];
+                    int e = 3 * (x + 1);
+                    int r = clamp((p >> 16 & 0xFF) + round16(in[e] + rightR));
+                    int g = clamp((p >> 8 & 0xFF) + round16(in[e + 1] + rightG));
+                    int b = clamp((p & 0xFF) + round16(in[e + 2] + rightB));
+                    int index = nearest(r, g, b);
+                    int q = palette[index];
+                    int er = r - (q >> 16 & 0xFF);
+                    int eg = g - (q >> 8 & 0xFF);
+                    int eb = b - (q & 0xFF);
+                    rightR = 7 * er;
+                    rightG = 7 * eg;
+                    rightB = 7 * eb;
+                    out[e - 3] += 3 * er;
+                    out[e - 2] += 3 * eg;
+                    out[e - 1] += 3 * eb;
+                    out[e] += 5 * er;
+                    out[e + 1] += 5 * eg;
+                    out[e + 2] += 5 * eb;
+                    out[e + 3] += er;
+                    out[e + 4] += eg;
+                    out[e + 5] += eb;
+                    pixels[i] = index;
+                    done.lazySet(y, x + 1);
+                }
+                done.set(y, width);
+            }
+        });
+    }
+
+    // Waits until the row has finished at least count columns, and returns
+    // how many it has finished.
+    private static int waitFor(AtomicIntegerArray done, int row, int count)
+    {
+        int spins = 0;
+        int finished;
+        while ((finished = done.get(row)) < count)
+        {
+            if (++spins < 100)
+                Thread.onSpinWait();
+            else
+                Thread.yield();
+        }
+        return finished;
+    }
+
+    private static int round16(int v)
+    {
+        return v >= 0 ? (v + 8) >> 4 : -((-v + 8) >> 4);
+    }
+
+    private static int clamp(int v)
+    {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+}
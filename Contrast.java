@@ -0,0 +1,373 @@
+import java.util.stream.IntStream;
+
+/**
+ * The Contrast class spreads the values of an image over the full range
+ * 0-255: histogram equalization, percentile auto-levels and CLAHE
+ * (contrast limited adaptive histogram equalization).  Each band is
+ * treated on its own; the alpha band of a transparent image is left as
+ * it is.
+ *
+ * Every method reads the image twice.  The first pass counts the values
+ * of each band into histograms of 256 bins, one stripe of rows per
+ * parallel task with histograms of its own that are added up afterwards.
+ * From the histograms a lookup table of 256 entries is built per band (or
+ * per band and tile, for CLAHE), and the second pass replaces every value
+ * by its table entry.  Neither pass sorts or searches, so the cost grows
+ * only with the number of pixels.
+ *
+ * CLAHE cuts the image into a grid of tiles and equalizes each tile on its
+ * own, after clipping its histogram so that no bin holds more than the
+ * clip limit times the mean and sharing the excess among all bins; this
+ * keeps flat areas from turning into noise.  Each pixel then mixes the
+ * tables of the four tiles whose centres surround it, weighted by how
+ * near it is to each, so that no seams show between tiles.
+ *
+ * @author shreya-va
+ */
+public class Contrast
+{
+    // Rows per stripe; each stripe is one parallel task.
+    private static final int STRIPE_ROWS = 64;
+
+    private Contrast()
+    {
+    }
+
+    /**
+     * Returns the histograms of the image, in one parallel pass.
+     *
+     * @param  image  the image to count
+     * @return        an array of [bands][256] counts, where [k][v] is the
+     *                number of pixels whose band k has the value v
+     */
+    public static int[][] histograms(EzImage image)
+    {
+        int[][] planes = image.getPixelsPlanar();
+        return count(planes, image.getWidth(), image.getHeight(), 1, 1)[0];
+    }
+
+    /**
+     * Returns a copy of the image with each band equalized: its values
+     * are remapped so that their cumulative histogram is as near to a
+     * straight line as it can be.
+     *
+     * @param  image  the image to equalize
+     * @return        the equalized image
+     */
+    public static EzImage equalize(EzImage image)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[][] planes = image.getPixelsPlanar();
+        int[][] histograms = count(planes, width, height, 1, 1)[0];
+        int[][] tables = new int[planes.length][];
+        for (int k = 0; k < planes.length; k++)
+            tables[k] = equalizeTable(histograms[k], isAlpha(k));
+        apply(planes, tables);
+        return EzImage.fromPlanes(planes, height, width);
+    }
+
+    /**
+     * Returns a copy of the image with each band stretched so that the
+     * given fraction of its darkest values become 0, the same fraction of
+     * its brightest values become 255, and the values in between are
+     * spread evenly.  Stretching the bands separately also removes a
+     * color cast.
+     *
+     * @param  image  the image to stretch
+     * @param  clip   the fraction clipped at each end, from 0 to 0.5;
+     *                0.005 is a common choice
+     * @return        the stretched image
+     * @throws        IllegalArgumentException if clip is outside 0-0.5
+     */
+    public static EzImage autoLevels(EzImage image, double clip)
+    {
+        if (!(clip >= 0 && clip <= 0.5))
+            throw new IllegalArgumentException("clip must be from 0 to 0.5");
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[][] planes = image.getPixelsPlanar();
+        int[][] histograms = count(planes, width, height, 1, 1)[0];
+        long total = (long)width * height;
+        int[][] tables = new int[planes.length][];
+        for (int k = 0; k < planes.length; k++)
+        {
+            int[] histogram = histograms[k];
+            int low = valueAt(histogram, (long)Math.floor(clip * total));
+            int high = valueAt(histogram,
+                               (long)Math.ceil((1 - clip) * total) - 1);
+            int[] table = identity();
+            if (high > low && !isAlpha(k))
+                for (int v = 0; v < 256; v++)
+                    table[v] = Math.max(0, Math.min(255,
+                            ((v - low) * 255 + (high - low) / 2) /
+                            (high - low)));
+            tables[k] = table;
+        }
+        apply(planes, tables);
+        return EzImage.fromPlanes(planes, height, width);
+    }
+
+    /**
+     * Returns a copy of the image with contrast limited adaptive histogram
+     * equalization.
+     *
+     * @param  image      the image to equalize
+     * @param  tiles      the number of tiles across and down
+     * @param  clipLimit  the most any histogram bin may hold, as a multiple
+     *                    of the mean bin; 1 changes nothing, 2 to 4 is
+     *                    usual, and a large value gives plain equalization
+     *                    of each tile
+     * @return            the equalized image
+     * @throws            IllegalArgumentException if tiles is less than 1
+     *                    or more than the width or height, or clipLimit is
+     *                    less than 1
+     */
+    public static EzImage clahe(EzImage image, int tiles, double clipLimit)
+    {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        if (tiles < 1 || tiles > width || tiles > height)
+            throw new IllegalArgumentException(
+                    "tiles must be from 1 to the width and height");
+        if (!(clipLimit >= 1))
+            throw new IllegalArgumentException("clipLimit must be at least 1");
+        final int[][] planes = image.getPixelsPlanar();
+        final int bands = planes.length;
+        int[][][] histograms = count(planes, width, height, tiles, tiles);
+
+        // One table per tile and band: tables[ty * tiles + tx][k].
+        final int[][][] tables = new int[tiles * tiles][bands][];
+        for (int t = 0; t < tiles * tiles; t++)
+        {
+            int tx = t % tiles;
+            int ty = t / tiles;
+            long area = (long)(edge(tx + 1, tiles, width) -
+                               edge(tx, tiles, width)) *
+                        (edge(ty + 1, tiles, height) -
+                         edge(ty, tiles, height));
+            int limit = (int)Math.max(1, Math.ceil(clipLimit * area / 256));
+            for (int k = 0; k < bands; k++)
+                tables[t][k] = isAlpha(k) ? identity() :
+                    equalizeTable(clip(histograms[t][k], limit), false);
+        }
+
+        // For every column, the tiles whose centres are on either side and
+        // the weight of the right one; likewise for every row.
+        final int[] left = new int[width];
+        final int[] right = new int[width];
+        final float[] across = new float[width];
+        neighbours(width, tiles, left, right, across);
+        final int[] above = new int[height];
+        final int[] below = new int[height];
+        final float[] down = new float[height];
+        neighbours(height, tiles, above, below, down);
+
+        IntStream.range(0, (height + STRIPE_ROWS - 1) / STRIPE_ROWS)
+            .parallel().forEach(s -> {
+                for (int y = s * STRIPE_ROWS;
+                     y < Math.min(height, (s + 1) * STRIPE_ROWS); y++)
+                {
+                    int[][] topLeft, topRight, bottomLeft, bottomRight;
+                    float wy = down[y];
+                    for (int x = 0; x < width; x++)
+                    {
+                        topLeft = tables[above[y] * tiles + left[x]];
+                        topRight = tables[above[y] * tiles + right[x]];
+                        bottomLeft = tables[below[y] * tiles + left[x]];
+                        bottomRight = tables[below[y] * tiles + right[x]];
+                        float wx = across[x];
+                        int i = y * width + x;
+                        for (int k = 0; k < bands; k++)
+                        {
+                            int v = planes[k][i];
+                            float top = topLeft[k][v] +
+                                wx * (topRight[k][v] - topLeft[k][v]);
+                            float bottom = bottomLeft[k][v] +
+                                wx * (bottomRight[k][v] - bottomLeft[k][v]);
+                            planes[k][i] =
+                                Math.round(top + wy * (bottom - top));
+                        }
+                    }
+                }
+            });
+        return EzImage.fromPlanes(planes, height, width);
+    }
+
+    /**
+     * Counts the values of every band in every tile of a grid of
+     * tilesAcross by tilesDown, in one pass over the planes.
+     *
+     * @return   an array of [tile][band][256] counts, with the tiles in
+     *           row-major order
+     */
+    private static int[][][] count(final int[][] planes, final int width,
+                                   final int height, final int tilesAcross,
+                                   final int tilesDown)
+    {
+        final int bands = planes.length;
+        final int tileCount = tilesAcross * tilesDown;
+        int stripes = (height + STRIPE_ROWS - 1) / STRIPE_ROWS;
+        int[][][][] partial = new int[stripes][][][];
+        IntStream.range(0, stripes).parallel().forEach(s -> {
+            int[][][] counts = new int[tileCount][bands][256];
+            int ty = 0;
+            for (int y = s * STRIPE_ROWS;
+                 y < Math.min(height, (s + 1) * STRIPE_ROWS); y++)
+            {
+                while (y >= edge(ty + 1, tilesDown, height))
+                    ty++;
+                int row = y * width;
+                for (int k = 0; k < bands; k++)
+                    for (int tx = 0; tx < tilesAcross; tx++)
+                    {
+                        int[] plane = planes[k];
+                        int[] histogram = counts[ty * tilesAcross + tx][k];
+                        for (int x = row + edge(tx, tilesAcross, width);
+                             x < row + edge(tx + 1, tilesAcross, width); x++)
+                            histogram[plane[x] & 0xFF]++;
+                    }
+            }
+            partial[s] = counts;
+        });
+
+        int[][][] total = new int[tileCount][bands][256];
+        for (int[][][] counts : partial)
+            for (int t = 0; t < tileCount; t++)
+                for (int k = 0; k < bands; k++)
+                    for (int v = 0; v < 256; v++)
+                        total[t][k][v] += counts[t][k][v];
+        return total;
+    }
+
+    /** Replaces every value of every band by its table entry. */
+    private static void apply(final int[][] planes, final int[][] tables)
+    {
+        final int length = planes[0].length;
+        int chunks = (length + (1 << 16) - 1) >> 16;
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int end = Math.min(length, (c + 1) << 16);
+            for (int k = 0; k < planes.length; k++)
+            {
+                int[] plane = planes[k];
+                int[] table = tables[k];
+                for (int i = c << 16; i < end; i++)
+                    plane[i] = table[plane[i] & 0xFF];
+            }
+        });
+    }
+
+    /**
+     * Returns the table that equalizes a histogram, or the identity if
+     * asked to or if the histogram holds a single value.
+     */
+    private static int[] equalizeTable(int[] histogram, boolean unchanged)
+    {
+        int[] table = identity();
+        long total = 0;
+        long first = 0;
+        for (int v = 0; v < 256; v++)
+        {
+            if (total == 0)
+                first = histogram[v];
+            total += histogram[v];
+        }
+        if (unchanged || total == first)
+            return table;
+        // Maps the cumulative count from first..total onto 0..255.
+        long cumulative = 0;
+        for (int v = 0; v < 256; v++)
+        {
+            cumulative += histogram[v];
+            table[v] = (int)Math.max(0, ((cumulative - first) * 255 +
+                                         (total - first) / 2) /
+                                        (total - first));
+        }
+        return table;
+    }
+
+    /**
+     * Returns a copy of the histogram with no bin above limit, the excess
+     * shared out evenly over all the bins.
+     */
+    private static int[] clip(int[] histogram, int limit)
+    {
+        int[] clipped = new int[256];
+        long excess = 0;
+        for (int v = 0; v < 256; v++)
+        {
+            excess += Math.max(0, histogram[v] - limit);
+            clipped[v] = Math.min(histogram[v], limit);
+        }
+        int share = (int)(excess / 256);
+        int rest = (int)(excess % 256);
+        for (int v = 0; v < 256; v++)
+            clipped[v] += share + (v < rest ? 1 : 0);
+        return clipped;
+    }
+
+    /**
+     * Fills in, for every position along an axis of the given size cut
+     * into tiles, the tiles with the nearest centres before and after it
+     * and how far it is from the first (0) to the second (1).  Positions
+     * beyond the first or last centre use that tile alone.
+     */
+    private static void neighbours(int size, int tiles, int[] before,
+                                   int[] after, float[] weight)
+    {
+        for (int p = 0; p < size; p++)
+        {
+            double position = (p + 0.5) * tiles / size - 0.5;
+            int t = (int)Math.floor(position);
+            if (t < 0)
+            {
+                before[p] = after[p] = 0;
+                weight[p] = 0;
+            }
+            else if (t >= tiles - 1)
+            {
+                before[p] = after[p] = tiles - 1;
+                weight[p] = 0;
+            }
+            else
+            {
+                before[p] = t;
+                after[p] = t + 1;
+                weight[p] = (float)(position - t);
+            }
+        }
+    }
+
+    /** The first position of tile t of tiles along an axis of size. */
+    private static int edge(int t, int tiles, int size)
+    {
+        return (int)((long)t * size / tiles);
+    }
+
+    /** The smallest value with more than rank values below or at it. */
+    private static int valueAt(int[] histogram, long rank)
+    {
+        long seen = 0;
+        for (int v = 0; v < 256; v++)
+        {
+            seen += histogram[v];
+            if (seen > rank)
+                return v;
+        }
+        return 255;
+    }
+
+    // Band 3 is alpha, which is never remapped.
+    private static boolean isAlpha(int band)
+    {
+        return band == 3;
+    }
+
+    private static int[] identity()
+    {
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++)
+            table[v] = v;
+        return table;
+    }
+}
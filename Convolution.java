@@ -0,0 +1,264 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The Convolution class applies a ConvolutionKernel to an image or to one
+ * band of pixels.  Pixels outside the image are taken to be copies of the
+ * nearest edge pixel.
+ *
+ * The image is cut into stripes of rows that are processed in parallel.
+ * Each stripe reads the rows it needs above and below it (its halo), so
+ * stripes never wait on each other.  Within a stripe the kernel is applied
+ * in the cheapest way its shape allows:
+ * <ul>
+ * <li>box kernels use running sums, so the cost per pixel does not depend
+ *     on the radius;</li>
+ * <li>separable kernels run as a horizontal pass into a stripe-sized
+ *     buffer followed by a vertical pass, costing width+height instead of
+ *     width*height multiplications per pixel;</li>
+ * <li>any other kernel is applied directly.</li>
+ * </ul>
+ * All arithmetic is integer, using the kernel's fixed-point weights.
+ *
+ * @author shreya-va
+ */
+public class Convolution
+{
+    // Rows per stripe; each stripe is one parallel task.
+    private static final int STRIPE_ROWS = 64;
+
+    private static final int BITS = ConvolutionKernel.FRACTION_BITS;
+
+    /**
+     * Returns a new image made by convolving every band of the image with
+     * the kernel.  Results are clamped to the range 0-255.
+     *
+     * @param  image   the image to filter
+     * @param  kernel  the kernel to apply
+     * @return         the filtered image
+     */
+    public static EzImage convolve(EzImage image, ConvolutionKernel kernel)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[][] planes = image.getPixelsPlanar();
+        for (int k = 0; k < planes.length; k++)
+        {
+            planes[k] = convolve(planes[k], width, height, kernel);
+            clamp(planes[k]);
+        }
+        return EzImage.fromPlanes(planes, height, width);
+    }
+
+    /**
+     * Returns the convolution of one band of pixels with the kernel.  The
+     * results are rounded but not clamped, so they can be negative or
+     * larger than 255 for kernels such as Sobel.
+     *
+     * @param  pixels  an array of [height * width] pixels in row-major
+     *                 format, in the range 0-255
+     * @param  width   the width (in pixels) of the band
+     * @param  height  the height (in pixels) of the band
+     * @param  kernel  the kernel to apply
+     * @return         a new array of [height * width] results
+     * @throws         IllegalArgumentException if the array length is not
+     *                 width * height
+     */
+    public static int[] convolve(final int[] pixels, final int width,
+                                 final int height,
+                                 final ConvolutionKernel kernel)
+    {
+        if (pixels == null || pixels.length != width * height)
+            throw new IllegalArgumentException(
+                    "pixel array doesn't match the image size");
+
+        final int[] result = new int[width * height];
+        int stripes = (height + STRIPE_ROWS - 1) / STRIPE_ROWS;
+        IntStream.range(0, stripes).parallel().forEach(s -> {
+            int y0 = s * STRIPE_ROWS;
+            int y1 = Math.min(height, y0 + STRIPE_ROWS);
+            if (kernel.box)
+                boxStripe(pixels, result, width, height, y0, y1, kernel);
+            else if (kernel.row != null)
+                separableStripe(pixels, result, width, height, y0, y1, kernel);
+            else
+                directStripe(pixels, result, width, height, y0, y1, kernel);
+        });
+        return result;
+    }
+
+    /**
+     * Clamps every value to the range 0-255.
+     *
+     * @param  values  the values to clamp, in place
+     */
+    public static void clamp(int[] values)
+    {
+        for (int i = 0; i < values.length; i++)
+        {
+            int v = values[i];
+            values[i] = v < 0 ? 0 : (v > 255 ? 255 : v);
+        }
+    }
+
+    private static int edge(int i, int size)
+    {
+        return i < 0 ? 0 : (i >= size ? size - 1 : i);
+    }
+
+    /**
+     * Horizontal pass then vertical pass.  The stripe buffer holds the
+     * horizontally filtered rows of the stripe plus its halo rows, still
+     * scaled by the fixed-point factor.
+     */
+    private static void separableStripe(int[] in, int[] out, int width,
+                                        int height, int y0, int y1,
+                                        ConvolutionKernel kernel)
+    {
+        int[] row = kernel.row;
+        int[] column = kernel.column;
+        int ry = column.length / 2;
+        int rows = y1 - y0 + 2 * ry;
+        int[] buffer = new int[rows * width];
+        for (int t = 0; t < rows; t++)
+            horizontal(in, edge(y0 - ry + t, height) * width, buffer,
+                       t * width, width, row);
+
+        long[] sums = new long[width];
+        long half = 1L << (2 * BITS - 1);
+        for (int y = y0; y < y1; y++)
+        {
+            Arrays.fill(sums, 0);
+            int base = (y - y0) * width;
+            for (int k = 0; k < column.length; k++)
+            {
+                int w = column[k];
+                if (w == 0)
+                    continue;
+                int offset = base + k * width;
+                for (int x = 0; x < width; x++)
+                    sums[x] += (long)buffer[offset + x] * w;
+            }
+            int target = y * width;
+            for (int x = 0; x < width; x++)
+                out[target + x] = (int)((sums[x] + half) >> (2 * BITS));
+        }
+    }
+
+    private static void horizontal(int[] in, int from, int[] out, int to,
+                                   int width, int[] weights)
+    {
+        int r = weights.length / 2;
+        int interiorEnd = width - r;
+        for (int x = 0; x < width; x++)
+        {
+            int sum = 0;
+            if (x >= r && x < interiorEnd)
+            {
+                int start = from + x - r;
+                for (int k = 0; k < weights.length; k++)
+                    sum += in[start + k] * weights[k];
+            }
+            else
+            {
+                for (int k = 0; k < weights.length; k++)
+                    sum += in[from + edge(x - r + k, width)] * weights[k];
+            }
+            out[to + x] = sum;
+        }
+    }
+
+    /**
+     * Running sums: each row of the stripe and its halo is summed over the
+     * box width by sliding a window along it, then the row sums are summed
+     * over the box height by sliding down each column.
+     */
+    private static void boxStripe(int[] in, int[] out, int width, int height,
+                                  int y0, int y1, ConvolutionKernel kernel)
+    {
+        int rx = kernel.getWidth() / 2;
+        int ry = kernel.getHeight() / 2;
+        int rows = y1 - y0 + 2 * ry;
+        int[] buffer = new int[rows * width];
+        for (int t = 0; t < rows; t++)
+        {
+            int from = edge(y0 - ry + t, height) * width;
+            int to = t * width;
+            int sum = 0;
+            for (int k = -rx; k <= rx; k++)
+                sum += in[from + edge(k, width)];
+            buffer[to] = sum;
+            for (int x = 1; x < width; x++)
+            {
+                sum += in[from + edge(x + rx, width)]
+                     - in[from + edge(x - rx - 1, width)];
+                buffer[to + x] = sum;
+            }
+        }
+
+        // weight in 32-bit fixed point, so that sum * weight needs no divide
+        long weight = Math.round(kernel.boxWeight * (1L << 32));
+        long half = 1L << 31;
+        int[] sums = new int[width];
+        for (int t = 0; t <= 2 * ry; t++)
+            for (int x = 0; x < width; x++)
+                sums[x] += buffer[t * width + x];
+        for (int y = y0; y < y1; y++)
+        {
+            int t = y - y0;
+            if (t > 0)
+            {
+                int add = (t + 2 * ry) * width;
+                int remove = (t - 1) * width;
+                for (int x = 0; x < width; x++)
+                    sums[x] += buffer[add + x] - buffer[remove + x];
+            }
+            int target = y * width;
+            for (int x = 0; x < width; x++)
+                out[target + x] = (int)((sums[x] * weight + half) >> 32);
+        }
+    }
+
+    private static void directStripe(int[] in, int[] out, int width,
+                                     int height, int y0, int y1,
+                                     ConvolutionKernel kernel)
+    {
+        int[] weights = kernel.fixed;
+        int kw = kernel.getWidth();
+        int kh = kernel.getHeight();
+        int rx = kw / 2;
+        int ry = kh / 2;
+        long half = 1L << (BITS - 1);
+        for (int y = y0; y < y1; y++)
+        {
+            boolean rowInside = y >= ry && y < height - ry;
+            for (int x = 0; x < width; x++)
+            {
+                long sum = 0;
+                if (rowInside && x >= rx && x < width - rx)
+                {
+                    int start = (y - ry) * width + x - rx;
+                    for (int i = 0; i < kh; i++)
+                    {
+                        int p = start + i * width;
+                        int w = i * kw;
+                        for (int j = 0; j < kw; j++)
+                            sum += (long)in[p + j] * weights[w + j];
+                    }
+                }
+                else
+                {
+                    for (int i = 0; i < kh; i++)
+                    {
+                        int p = edge(y - ry + i, height) * width;
+                        int w = i * kw;
+                        for (int j = 0; j < kw; j++)
+                            sum += (long)in[p + edge(x - rx + j, width)]
+                                   * weights[w + j];
+                    }
+                }
+                out[y * width + x] = (int)((sum + half) >> BITS);
+            }
+        }
+    }
+}
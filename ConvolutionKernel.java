@@ -0,0 +1,321 @@
+import java.util.Arrays;
+
+/**
+ * A ConvolutionKernel is the grid of weights used by Convolution.  The
+ * kernel is centred on the pixel being computed, so its width and height
+ * must be odd.
+ *
+ * When a kernel is created it is classified so that Convolution can pick
+ * the cheapest way to apply it: box kernels (all weights equal) run with
+ * running sums, separable kernels (a column vector times a row vector) run
+ * as two one-dimensional passes, and anything else runs directly.  Weights
+ * are held in fixed point with 14 fractional bits, which is exact for
+ * integer kernels over a power-of-two divisor such as 1-2-1/4.
+ *
+ * @author shreya-va
+ */
+public class ConvolutionKernel
+{
+    static final int FRACTION_BITS = 14;
+    static final int ONE = 1 << FRACTION_BITS;
+
+    private static final double SEPARABLE_TOLERANCE = 1e-6;
+    private static final double MAX_ROW_SUM = 500;
+
+    private final int width;
+    private final int height;
+    // null for box kernels, which need only boxWeight
+    private final double[] weights;
+
+    // Fixed-point weights; fixed is null unless the kernel is applied
+    // directly, row/column are null unless the kernel is separable
+    final int[] fixed;
+    final int[] row;
+    final int[] column;
+    final boolean box;
+    final double boxWeight;
+
+    /**
+     * Constructs a kernel from weights laid out in row-major format.
+     *
+     * @param  width    the number of columns; must be odd
+     * @param  height   the number of rows; must be odd
+     * @param  weights  the width*height weights
+     * @throws          IllegalArgumentException if the sizes are even or do
+     *                  not match the number of weights
+     */
+    public ConvolutionKernel(int width, int height, double[] weights)
+    {
+        this(width, height, weights, null, null);
+    }
+
+    /**
+     * Constructs a kernel whose factors, if known, are the given row and
+     * column vectors; otherwise they are looked for in the weights.
+     */
+    private ConvolutionKernel(int width, int height, double[] weights,
+                              double[] row, double[] column)
+    {
+        if (width <= 0 || height <= 0 || width % 2 == 0 || height % 2 == 0)
+            throw new IllegalArgumentException("kernel sizes must be odd");
+        if (weights == null || weights.length != width * height)
+            throw new IllegalArgumentException(
+                    "weights don't match the kernel size");
+
+        this.width = width;
+        this.height = height;
+        this.weights = weights.clone();
+
+        boolean equal = true;
+        for (int i = 1; i < weights.length; i++)
+            if (weights[i] != weights[0])
+                equal = false;
+        this.box = equal && weights[0] > 0;
+        this.boxWeight = weights[0];
+
+        double[][] factors = null;
+        if (row != null)
+            factors = new double[][] { row, column };
+        else if (!box)
+            factors = factor(width, height, weights);
+
+        // The horizontal pass keeps 0-255 pixels times fixed-point weights
+        // in an int; much larger row weights go through the direct path.
+        if (factors != null && absSum(factors[0]) > MAX_ROW_SUM)
+            factors = null;
+
+        if (factors != null)
+        {
+            this.row = toFixed(factors[0]);
+            this.column = toFixed(factors[1]);
+        }
+        else
+        {
+            this.row = null;
+            this.column = null;
+        }
+        this.fixed = box || this.row != null ? null : toFixed(weights);
+    }
+
+    /**
+     * Constructs a box kernel of the given side.
+     */
+    private ConvolutionKernel(int size, double weight)
+    {
+        this.width = size;
+        this.height = size;
+        this.weights = null;
+        this.fixed = null;
+        this.row = null;
+        this.column = null;
+        this.box = true;
+        this.boxWeight = weight;
+    }
+
+    /**
+     * Returns the separable kernel whose weight at (i, j) is
+     * column[i] * row[j].  The two vectors are applied as given.
+     *
+     * @param  row     the horizontal weights; odd length
+     * @param  column  the vertical weights; odd length
+     * @return         the outer product kernel
+     */
+    public static ConvolutionKernel separable(double[] row, double[] column)
+    {
+        double[] weights = new double[row.length * column.length];
+        for (int i = 0; i < column.length; i++)
+            for (int j = 0; j < row.length; j++)
+                weights[i * row.length + j] = column[i] * row[j];
+        return new ConvolutionKernel(row.length, column.length, weights,
+                                     row.clone(), column.clone());
+    }
+
+    /**
+     * Returns the kernel that averages a square of side 2*radius+1.
+     *
+     * @param  radius  the number of pixels on each side of the centre
+     * @return         a box kernel
+     */
+    public static ConvolutionKernel box(int radius)
+    {
+        if (radius < 0)
+            throw new IllegalArgumentException("radius must not be negative");
+        int size = 2 * radius + 1;
+        return new ConvolutionKernel(size, 1.0 / (size * size));
+    }
+
+    /**
+     * Returns a normalized Gaussian kernel with the given standard
+     * deviation, cut off at three standard deviations.
+     *
+     * @param  sigma  the standard deviation in pixels
+     * @return        a separable Gaussian kernel
+     */
+    public static ConvolutionKernel gaussian(double sigma)
+    {
+        if (sigma <= 0)
+            throw new IllegalArgumentException("sigma must be positive");
+        int radius = (int)Math.ceil(3 * sigma);
+        double[] vector = new double[2 * radius + 1];
+        double sum = 0;
+        for (int i = -radius; i <= radius; i++)
+        {
+            vector[i + radius] = Math.exp(-(i * i) / (2 * sigma * sigma));
+            sum += vector[i + radius];
+        }
+        for (int i = 0; i < vector.length; i++)
+            vector[i] /= sum;
+        return separable(vector, vector);
+    }
+
+    /**
+     * Returns the 3x3 kernel that adds amount times the difference between
+     * a pixel and its four neighbours.  An amount of 1 gives the classic
+     * 0,-1,0 / -1,5,-1 / 0,-1,0 sharpening kernel.
+     *
+     * @param  amount  the strength of the sharpening
+     * @return         a sharpening kernel
+     */
+    public static ConvolutionKernel sharpen(double amount)
+    {
+        return new ConvolutionKernel(3, 3, new double[] {
+                  0,        -amount,        0,
+            -amount, 1 + 4 * amount,  -amount,
+                  0,        -amount,        0 });
+    }
+
+    /**
+     * Returns the Sobel kernel for the horizontal gradient.
+     *
+     * @return   the 3x3 Sobel x kernel
+     */
+    public static ConvolutionKernel sobelX()
+    {
+        return separable(new double[] { -1, 0, 1 }, new double[] { 1, 2, 1 });
+    }
+
+    /**
+     * Returns the Sobel kernel for the vertical gradient.
+     *
+     * @return   the 3x3 Sobel y kernel
+     */
+    public static ConvolutionKernel sobelY()
+    {
+        return separable(new double[] { 1, 2, 1 }, new double[] { -1, 0, 1 });
+    }
+
+    /**
+     * Returns the number of columns of the kernel.
+     * @return   the width of the kernel
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the number of rows of the kernel.
+     * @return   the height of the kernel
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Returns a copy of the weights in row-major format.
+     * @return   the weights of the kernel
+     */
+    public double[] getWeights()
+    {
+        if (weights == null)
+        {
+            double[] result = new double[width * height];
+            Arrays.fill(result, boxWeight);
+            return result;
+        }
+        return weights.clone();
+    }
+
+    /**
+     * Returns true if the kernel is a column vector times a row vector.
+     * @return   true if the kernel is separable
+     */
+    public boolean isSeparable()
+    {
+        return row != null;
+    }
+
+    /**
+     * Returns true if all of the weights are the same positive value.
+     * @return   true if the kernel is a box filter
+     */
+    public boolean isBox()
+    {
+        return box;
+    }
+
+    /**
+     * Rounds the running total rather than each value, so that the fixed
+     * weights add up to the rounded sum of the weights.  A normalized
+     * kernel then leaves flat areas unchanged however many weights it has.
+     */
+    private static int[] toFixed(double[] values)
+    {
+        int[] result = new int[values.length];
+        double total = 0;
+        long previous = 0;
+        for (int i = 0; i < values.length; i++)
+        {
+            total += values[i];
+            long rounded = Math.round(total * ONE);
+            result[i] = (int)(rounded - previous);
+            previous = rounded;
+        }
+        return result;
+    }
+
+    private static double absSum(double[] values)
+    {
+        double sum = 0;
+        for (double value : values)
+            sum += Math.abs(value);
+        return sum;
+    }
+
+    /**
+     * Splits the kernel into a row vector and a column vector whose outer
+     * product is the kernel, or returns null if there are none.  The
+     * factors are taken from the row and column of the largest weight,
+     * with its magnitude shared evenly between them so that neither loses
+     * precision in fixed point.
+     */
+    private static double[][] factor(int width, int height, double[] weights)
+    {
+        int pivot = 0;
+        for (int i = 1; i < weights.length; i++)
+            if (Math.abs(weights[i]) > Math.abs(weights[pivot]))
+                pivot = i;
+        double p = weights[pivot];
+        if (p == 0)
+            return null;
+
+        int pi = pivot / width;
+        int pj = pivot % width;
+        double root = Math.sqrt(Math.abs(p));
+        double[] row = new double[width];
+        double[] column = new double[height];
+        for (int j = 0; j < width; j++)
+            row[j] = weights[pi * width + j] / root;
+        for (int i = 0; i < height; i++)
+            column[i] = weights[i * width + pj] / p * root;
+
+        double scale = Math.abs(p);
+        for (int i = 0; i < height; i++)
+            for (int j = 0; j < width; j++)
+                if (Math.abs(column[i] * row[j] - weights[i * width + j])
+                        > SEPARABLE_TOLERANCE * scale)
+                    return null;
+        return new double[][] { row, column };
+    }
+}
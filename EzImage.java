@@ -6,6 +6,14 @@ import java.io.*;
 import java.awt.*;
 import javax.swing.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.stream.IntStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 
 /**
  * The EzImage class makes accessing and manipulating images straightforward.
@@ -42,9 +50,41 @@ public class EzImage
     // All image formats that Java knows how to write
     private static final String[] WRITER_TYPES = ImageIO.getWriterFormatNames();
 
+    // Each thread keeps one ImageWriter per format, since looking a writer
+    // up is slow and a writer must not be used by two threads at once.
+    private static final ThreadLocal<Map<String, ImageWriter>> WRITERS =
+        ThreadLocal.withInitial(HashMap::new);
+
+    // Quality value meaning "use the writer's default settings"
+    private static final float DEFAULT_QUALITY = -1;
+
     private static int windowCount = 0;
 
     private BufferedImage bufferedImage;
+
+    // Counts the EzImages sharing bufferedImage after copy(); see unshare().
+    private static class Share
+    {
+        int owners = 1;
+    }
+
+    private Share share = new Share();
+
+    // True once code outside this class can reach bufferedImage: it was
+    // passed to the constructor or handed out by getBufferedImage.  Such
+    // pixels may change behind our back, so copy() duplicates them at once
+    // instead of sharing them.
+    private boolean exposed;
+
+    // False if bufferedImage was passed to the constructor rather than
+    // made by this class.  Only images made here may go to PixelPool.
+    private boolean allocated = true;
+
+    // Half-resolution levels, made on first use and dropped on any change.
+    private ImagePyramid pyramid;
+
+    // The area changed since the last clearDirtyRegion(); null if none.
+    private Rectangle dirty;
 	
     /**
      * Constructs an EzImage object represented by the specified pixels.
@@ -58,13 +98,14 @@ public class EzImage
     public EzImage(int[][] pixels)
     {
         // Create the BufferedImage (doesn't include transparency)
-        bufferedImage = new BufferedImage(pixels[0].length,pixels.length,
-                                          BufferedImage.TYPE_BYTE_GRAY);
+        bufferedImage = PixelPool.acquireImage(BufferedImage.TYPE_BYTE_GRAY,
+                                               pixels[0].length, pixels.length);
 
         if(pixels == null)
             throw new IllegalArgumentException("null pixels array");	
 	   	
         setPixels(pixels, GRAY);
+        clearDirtyRegion();
     }
 
 
@@ -86,8 +127,9 @@ public class EzImage
     public EzImage(int[][] redPixels, int[][] greenPixels, int[][] bluePixels)
     {
         // Create the BufferedImage (doesn't include transparency)
-        bufferedImage = new BufferedImage(redPixels[0].length,redPixels.length,
-                                          BufferedImage.TYPE_INT_RGB);
+        bufferedImage = PixelPool.acquireImage(BufferedImage.TYPE_INT_RGB,
+                                               redPixels[0].length,
+                                               redPixels.length);
 
         if(redPixels == null || greenPixels == null || bluePixels == null)
             throw new IllegalArgumentException("null pixels array");
@@ -95,6 +137,7 @@ public class EzImage
         setPixels(redPixels,RED);
         setPixels(greenPixels,GREEN);
         setPixels(bluePixels,BLUE);
+        clearDirtyRegion();
     }
 
 	
@@ -110,13 +153,14 @@ public class EzImage
     public EzImage(int[][][] pixels)
     {
         // Create the BufferedImage (doesn't include transparency)
-		bufferedImage = new BufferedImage(pixels[0].length,pixels.length,
-                                          BufferedImage.TYPE_INT_RGB);
+		bufferedImage = PixelPool.acquireImage(BufferedImage.TYPE_INT_RGB,
+                                               pixels[0].length, pixels.length);
 
         if(pixels == null)
             throw new IllegalArgumentException("null pixels array");
 		
         setPixels(pixels);
+        clearDirtyRegion();
     }
 
     /**
@@ -144,8 +188,8 @@ public class EzImage
             throw new IllegalArgumentException("pixel array sizes do not match");
 
         // Create the BufferedImage (doesn't include transparency)
-        bufferedImage = new BufferedImage(width,height,
-                                          BufferedImage.TYPE_INT_RGB);
+        bufferedImage = PixelPool.acquireImage(BufferedImage.TYPE_INT_RGB,
+                                               width, height);
 
         if(redPixels == null || greenPixels == null || bluePixels == null)
             throw new IllegalArgumentException("null pixels array");
@@ -153,6 +197,7 @@ public class EzImage
         setPixels(redPixels,RED);
         setPixels(greenPixels,GREEN);
         setPixels(bluePixels,BLUE);
+        clearDirtyRegion();
     }
 
 
@@ -171,8 +216,8 @@ public class EzImage
     public EzImage(int[] pixels, int height, int width)
     {
         // Create the BufferedImage (doesn't include transparency)
-        bufferedImage = new BufferedImage(width,height,
-                                          BufferedImage.TYPE_BYTE_GRAY);
+        bufferedImage = PixelPool.acquireImage(BufferedImage.TYPE_BYTE_GRAY,
+                                               width, height);
 
         if(pixels == null)
         {
@@ -185,6 +230,7 @@ public class EzImage
         }
         
         setPixels(pixels, GRAY);
+        clearDirtyRegion();
     }
 
     /**
@@ -195,6 +241,20 @@ public class EzImage
     public EzImage(BufferedImage image)
     {
         bufferedImage = image;
+        exposed = true;
+        allocated = false;
+    }
+
+    /**
+     * Returns an EzImage holding an image that this class has just made,
+     * and that nothing else refers to.
+     */
+    private static EzImage owning(BufferedImage image)
+    {
+        EzImage result = new EzImage(image);
+        result.exposed = false;
+        result.allocated = true;
+        return result;
     }
 
     /**
@@ -211,7 +271,9 @@ public class EzImage
         if(!file.exists())
             throw new FileNotFoundException(filename);
         
-        bufferedImage = ImageIO.read(file);
+        ImageEvent event = ImageEvent.start();
+        bufferedImage = expandIndexed(ImageIO.read(file));
+        event.finish("EzImage.read", this);
     }
     
     /**
@@ -227,7 +289,9 @@ public class EzImage
         if(!file.exists())
             throw new FileNotFoundException(file.getName());
 
-        bufferedImage = ImageIO.read(file);
+        ImageEvent event = ImageEvent.start();
+        bufferedImage = expandIndexed(ImageIO.read(file));
+        event.finish("EzImage.read", this);
     }
 
     /**
@@ -239,10 +303,209 @@ public class EzImage
      */
     public EzImage(URL url) throws IOException
     {
-        bufferedImage = ImageIO.read(url);
+        ImageEvent event = ImageEvent.start();
+        bufferedImage = expandIndexed(ImageIO.read(url));
+        event.finish("EzImage.read", this);
+    }
+
+    /**
+     * Constructs an EzImage object by reading an encoded image, such as an
+     * upload, from a stream.  The format may be any one of the formats that
+     * Java has readers for, such as GIF, PNG, or JPEG.  The stream is read
+     * to the end but not closed.
+     *
+     * @param  input  the stream to read
+     * @throws        IOException if the stream cannot be read or holds no
+     *                image that Java can decode
+     */
+    public EzImage(InputStream input) throws IOException
+    {
+        ImageEvent event = ImageEvent.start();
+        BufferedImage image = ImageIO.read(input);
+        if(image == null)
+            throw new IOException("No reader for the image");
+        bufferedImage = expandIndexed(image);
+        event.finish("EzImage.read", this);
+    }
+
+    /**
+     * Constructs an EzImage object from part of the image file specified by
+     * the filename, optionally keeping only every n-th pixel.  Only the
+     * requested pixels are decoded, which is much cheaper than loading the
+     * whole image and cropping or scaling it afterwards.
+     *
+     * @param  filename     the name of the file to load
+     * @param  region       the rectangle of the image to load, in pixels of
+     *                      the file, or null for the whole image
+     * @param  subsampling  keep every subsampling-th row and column; 1 keeps
+     *                      every pixel
+     * @throws              FileNotFoundException if the file does not exist,
+     *                      IOException if the file cannot be decoded,
+     *                      IllegalArgumentException if subsampling is less
+     *                      than 1 or the region lies outside the image
+     */
+    public EzImage(String filename, Rectangle region, int subsampling)
+        throws FileNotFoundException, IOException
+    {
+        this(new File(filename), region, subsampling);
+    }
+
+    /**
+     * Constructs an EzImage object from part of the File object indicated,
+     * optionally keeping only every n-th pixel.  Only the requested pixels
+     * are decoded, which is much cheaper than loading the whole image and
+     * cropping or scaling it afterwards.
+     *
+     * @param  file         the File object to load
+     * @param  region       the rectangle of the image to load, in pixels of
+     *                      the file, or null for the whole image
+     * @param  subsampling  keep every subsampling-th row and column; 1 keeps
+     *                      every pixel
+     * @throws              FileNotFoundException if the file does not exist,
+     *                      IOException if the file cannot be decoded,
+     *                      IllegalArgumentException if subsampling is less
+     *                      than 1 or the region lies outside the image
+     */
+    public EzImage(File file, Rectangle region, int subsampling)
+        throws FileNotFoundException, IOException
+    {
+        if(!file.exists())
+            throw new FileNotFoundException(file.getName());
+        if(subsampling < 1)
+            throw new IllegalArgumentException("subsampling must be at least 1");
+
+        bufferedImage = read(file, region, subsampling, 0);
+    }
+
+    /**
+     * Returns an EzImage whose width and height are at most maxSize, decoded
+     * from the file by keeping only every n-th pixel.  The subsampling
+     * factor is the smallest one that fits, so the result is between
+     * maxSize/2 and maxSize pixels on its longer side unless the image is
+     * already small enough.
+     *
+     * @param  file     the File object to load
+     * @param  maxSize  the largest width or height wanted, in pixels
+     * @return          a reduced copy of the image in the file
+     * @throws          FileNotFoundException if the file does not exist,
+     *                  IOException if the file cannot be decoded
+     */
+    public static EzImage thumbnail(File file, int maxSize)
+        throws FileNotFoundException, IOException
+    {
+        if(!file.exists())
+            throw new FileNotFoundException(file.getName());
+        if(maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be at least 1");
+
+        return owning(read(file, null, 0, maxSize));
+    }
+
+    /**
+     * Decodes the first image in the file through an ImageReader, passing
+     * the region and subsampling on so that the reader skips everything
+     * else.  If maxSize is positive the subsampling is chosen from the image
+     * size so that neither side exceeds it.
+     */
+    private static BufferedImage read(File file, Rectangle region,
+                                      int subsampling, int maxSize)
+        throws IOException
+    {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if(input == null)
+            throw new IOException("Cannot open " + file.getName());
+
+        try
+        {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if(!readers.hasNext())
+                throw new IOException("No reader for " + file.getName());
+
+            ImageReader reader = readers.next();
+            try
+            {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if(region != null)
+                {
+                    if(region.isEmpty() ||
+                       !new Rectangle(width, height).contains(region))
+                        throw new IllegalArgumentException(
+                                "region lies outside the image");
+                    width = region.width;
+                    height = region.height;
+                }
+                if(maxSize > 0)
+                {
+                    int longest = Math.max(width, height);
+                    subsampling = (longest + maxSize - 1) / maxSize;
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                if(region != null)
+                    param.setSourceRegion(region);
+                if(subsampling > 1)
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                ImageEvent event = ImageEvent.start();
+                BufferedImage image = expandIndexed(reader.read(0, param));
+                int bands = image.getRaster().getNumBands();
+                event.finish("EzImage.readRegion", image.getWidth(),
+                             image.getHeight(), bands,
+                             (long)image.getWidth() * image.getHeight() * bands);
+                return image;
+            }
+            finally
+            {
+                reader.dispose();
+            }
+        }
+        finally
+        {
+            input.close();
+        }
     }
 
 
+    /**
+     * Returns palette-based images, such as most GIFs and indexed PNGs, as
+     * full-color images, so that their bands hold colors rather than
+     * palette indices.  Palettes of grays only, as in binary images, give
+     * gray-scale images.  Other images are returned as they are.
+     */
+    static BufferedImage expandIndexed(BufferedImage image)
+    {
+        if (image == null || !(image.getColorModel() instanceof IndexColorModel))
+            return image;
+        IndexColorModel palette = (IndexColorModel)image.getColorModel();
+        boolean gray = !palette.hasAlpha();
+        for (int i = 0; i < palette.getMapSize() && gray; i++)
+            gray = palette.getRed(i) == palette.getGreen(i) &&
+                   palette.getRed(i) == palette.getBlue(i);
+        int type = gray ? BufferedImage.TYPE_BYTE_GRAY :
+                   palette.hasAlpha() ? BufferedImage.TYPE_INT_ARGB :
+                   BufferedImage.TYPE_INT_RGB;
+        BufferedImage result = new BufferedImage(image.getWidth(),
+                image.getHeight(), type);
+        if (gray)
+        {
+            // Look the grays up directly; drawing into a gray image would
+            // convert them to a linear gray scale.
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int[] samples = image.getRaster().getSamples(0, 0, width, height,
+                                                         0, new int[width * height]);
+            for (int i = 0; i < samples.length; i++)
+                samples[i] = palette.getRed(samples[i]);
+            result.getRaster().setSamples(0, 0, width, height, 0, samples);
+            return result;
+        }
+        Graphics g = result.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return result;
+    }
+
     /**
      * Returns the value of v clamped to the range 0-255.
      * This is a convenience method for working with image pixel values.
@@ -280,7 +543,7 @@ public class EzImage
                 output.setSample(col, row, 0, clamp((red+green+blue)/3.0));
             }
         }
-        return new EzImage(result);
+        return owning(result);
     }
 
     /**
@@ -295,21 +558,51 @@ public class EzImage
      */
     public int[][][] getPixels3D()
     {
+        return getPixels3D(null);
+    }
+
+    /**
+     * Fills a 3D array with the pixel values, as returned by getPixels3D(),
+     * and returns it.  Reusing the same array for many images of the same
+     * size avoids allocating a new one every time.
+     *
+     * @param  pixels  an array of [height][width][bands] pixels to fill, or
+     *                 null to allocate a new one
+     * @return         the filled array
+     * @throws         IllegalArgumentException if the array does not match
+     *                 the image
+     */
+    public int[][][] getPixels3D(int[][][] pixels)
+    {
+        ImageEvent event = ImageEvent.start();
         int width = bufferedImage.getWidth();
         int height = bufferedImage.getHeight();
         int bands = bufferedImage.getSampleModel().getNumBands();
-        int[][][] pixels = new int[height][width][bands];
+        if(pixels == null)
+            pixels = new int[height][width][bands];
+        else if(pixels.length != height || height > 0 &&
+                (pixels[0] == null || pixels[0].length != width))
+            throw new IllegalArgumentException(
+                    "pixel array doesn't match the image size");
         WritableRaster raster = bufferedImage.getRaster();
+        int[] row = new int[width * bands];
         for(int i=0; i<height; i++)
         {
+            raster.getPixels(0, i, width, 1, row);
             for(int j=0; j<width; j++)
             {
+                int[] pixel = pixels[i][j];
+                if(pixel == null || pixel.length != bands)
+                    throw new IllegalArgumentException(
+                            "pixel array doesn't match the image bands");
                 for(int k=0; k<bands; k++)
                 {
-                    pixels[i][j][k] = raster.getSample(j,i,k);                 
+                    pixel[k] = row[j*bands + k];
                 }
             }
         }
+        event.finish("EzImage.getPixels3D", width, height, bands,
+                     (long)width * height * bands);
         return pixels;
     }
 
@@ -327,6 +620,25 @@ public class EzImage
      *               color image, or vice-versa
      */
     public int[][] getPixels2D(int band) {
+        return getPixels2D(band, null);
+    }
+
+    /**
+     * Fills a 2D array with the pixel values of the specified band, as
+     * returned by getPixels2D(band), and returns it.  Reusing the same
+     * array for many images of the same size avoids allocating a new one
+     * every time.
+     * 
+     * @param  band    is either RED, GREEN, BLUE, ALPHA, or GRAY
+     * @param  pixels  an array of [height][width] pixels to fill, or null
+     *                 to allocate a new one
+     * @return         the filled array
+     * @throws         IllegalArgumentException if gray band is requested
+     *                 from color image, or vice-versa, or if the array does
+     *                 not match the image
+     */
+    public int[][] getPixels2D(int band, int[][] pixels) {
+        ImageEvent event = ImageEvent.start();
 
         if (band == GRAY && isColor())
             throw new IllegalArgumentException(
@@ -338,14 +650,21 @@ public class EzImage
 
         int width = bufferedImage.getWidth();
         int height = bufferedImage.getHeight();
-        int[][] pixels = new int[height][width];
+        if(pixels == null)
+            pixels = new int[height][width];
+        else if(pixels.length != height)
+            throw new IllegalArgumentException(
+                    "pixel array doesn't match the image size");
         WritableRaster raster = bufferedImage.getRaster();
         for(int i=0; i<height; i++) {
-            for(int j=0; j<width; j++) {
-                pixels[i][j] = raster.getSample(j,i,getBandId(band));
-            }
+            if(pixels[i] == null || pixels[i].length != width)
+                throw new IllegalArgumentException(
+                        "pixel array doesn't match the image size");
+            raster.getSamples(0, i, width, 1, getBandId(band), pixels[i]);
         }
 
+        event.finish("EzImage.getPixels2D", width, height, 1,
+                     (long)width * height);
         return pixels;
     }
 
@@ -383,6 +702,26 @@ public class EzImage
      */
     public int[] getPixels1D(int band)
     {
+        return getPixels1D(band, null);
+    }
+
+    /**
+     * Fills an array with the pixel values of the specified band, as
+     * returned by getPixels1D(band), and returns it.  The array can be
+     * reused for many images of the same size, or taken from PixelPool, to
+     * avoid allocating a new one every time.
+     * 
+     * @param  band    is either RED, GREEN, BLUE, ALPHA, or GRAY
+     * @param  pixels  an array of height*width pixels to fill, or null to
+     *                 allocate a new one
+     * @return         the filled array
+     * @throws         IllegalArgumentException if gray band is requested
+     *                 from color image, or vice-versa, or if the array is
+     *                 not height*width long
+     */
+    public int[] getPixels1D(int band, int[] pixels)
+    {
+        ImageEvent event = ImageEvent.start();
         if (band == GRAY && isColor())
             throw new IllegalArgumentException(
                     "Requested gray band of color image.");
@@ -393,17 +732,280 @@ public class EzImage
 
         int width = bufferedImage.getWidth();
         int height = bufferedImage.getHeight();
-        int[]pixels = new int[height * width];
+        if(pixels == null)
+            pixels = new int[height * width];
+        else if(pixels.length != height * width)
+            throw new IllegalArgumentException(
+                    "pixel array doesn't match the image size");
+        // getSamples fills the array in row-major order in one call
+        bufferedImage.getRaster().getSamples(0, 0, width, height,
+                                             getBandId(band), pixels);
+
+        event.finish("EzImage.getPixels1D", width, height, 1,
+                     (long)width * height);
+        return pixels;
+    }
+
+    /**
+     * Returns the pixel values of every band as separate 1D arrays, indexed
+     * [band][row*width + column].  The number of bands will be 1 for a
+     * gray-scale or binary image, 3 for a color image without transparency,
+     * and 4 for a color image with transparency.  The bands are (in order)
+     * RED (or GRAY), GREEN, BLUE, ALPHA.  Pixel values are in the range
+     * 0-255.  This is the layout used by the filters that work on one band
+     * at a time.
+     *
+     * @return       an array of [bands][height * width] pixels.
+     */
+    public int[][] getPixelsPlanar()
+    {
+        return getPixelsPlanar(new Rectangle(getWidth(), getHeight()), null);
+    }
+
+    /**
+     * Fills arrays with the pixel values of every band, as returned by
+     * getPixelsPlanar(), and returns them.  Bands that are null in the
+     * given array are allocated; the others can be reused for many images
+     * of the same size, or taken from PixelPool, to avoid allocating new
+     * ones every time.
+     *
+     * @param  planes  an array of [bands][height * width] pixels to fill,
+     *                 possibly with null bands, or null to allocate
+     *                 everything
+     * @return         the filled array
+     * @throws         IllegalArgumentException if the array does not match
+     *                 the image
+     */
+    public int[][] getPixelsPlanar(int[][] planes)
+    {
+        return getPixelsPlanar(new Rectangle(getWidth(), getHeight()), planes);
+    }
+
+    /**
+     * Returns the pixel values of every band inside a region of the image,
+     * as separate 1D arrays indexed [band][row*region.width + column], with
+     * rows and columns counted from the region's top left corner.  Reading
+     * a small region costs only as much as the region.
+     *
+     * @param  region  the part of the image to read
+     * @return         an array of [bands][region.height * region.width]
+     *                 pixels.
+     * @throws         IllegalArgumentException if the region is not inside
+     *                 the image
+     */
+    public int[][] getPixelsPlanar(Rectangle region)
+    {
+        return getPixelsPlanar(region, null);
+    }
+
+    /**
+     * Fills arrays with the pixel values of every band inside a region,
+     * as returned by getPixelsPlanar(region), and returns them.  Bands that
+     * are null in the given array are allocated.
+     *
+     * @param  region  the part of the image to read
+     * @param  planes  an array of [bands][region.height * region.width]
+     *                 pixels to fill, possibly with null bands, or null to
+     *                 allocate everything
+     * @return         the filled array
+     * @throws         IllegalArgumentException if the region is not inside
+     *                 the image, or the array does not match it
+     */
+    public int[][] getPixelsPlanar(Rectangle region, int[][] planes)
+    {
+        ImageEvent event = ImageEvent.start();
+        checkRegion(region);
+        final int x0 = region.x;
+        final int y0 = region.y;
+        final int width = region.width;
+        int height = region.height;
+        int bands = numColorBands();
+        if(planes == null)
+            planes = new int[bands][];
+        else if(planes.length != bands)
+            throw new IllegalArgumentException(
+                    "pixel array doesn't match the image bands");
+        for(int k=0; k<bands; k++)
+        {
+            if(planes[k] == null)
+                planes[k] = new int[width * height];
+            else if(planes[k].length != width * height)
+                throw new IllegalArgumentException(
+                        "pixel array doesn't match the region size");
+        }
         WritableRaster raster = bufferedImage.getRaster();
-        for(int i=0; i<height; i++)
+        int type = bufferedImage.getType();
+        if((type == BufferedImage.TYPE_INT_RGB ||
+            type == BufferedImage.TYPE_INT_ARGB) && isPlain(raster))
         {
-            for(int j=0; j<width; j++)
-            {
-                pixels[i*width + j] = raster.getSample(j,i,getBandId(band));
-            }
+            // Unpack the ints directly; going through the raster costs a
+            // virtual call per sample.
+            final int[] data = ((DataBufferInt)raster.getDataBuffer()).getData();
+            final int[][] out = planes;
+            final int stride = raster.getWidth();
+            IntStream.range(0, height).parallel().forEach(y -> {
+                int from = (y0 + y) * stride + x0;
+                for(int i=y*width; i<(y+1)*width; i++)
+                {
+                    int p = data[from++];
+                    out[0][i] = (p >> 16) & 0xFF;
+                    out[1][i] = (p >> 8) & 0xFF;
+                    out[2][i] = p & 0xFF;
+                    if(out.length == 4)
+                        out[3][i] = p >>> 24;
+                }
+            });
+            event.finish("EzImage.getPixelsPlanar", width, height, bands,
+                         (long)width * height * bands);
+            return planes;
         }
+        for(int k=0; k<bands; k++)
+            raster.getSamples(x0, y0, width, height, k, planes[k]);
+        event.finish("EzImage.getPixelsPlanar", width, height, bands,
+                     (long)width * height * bands);
+        return planes;
+    }
 
-        return pixels;
+    /**
+     * Returns every pixel packed as 0xAARRGGBB in row-major order.  Gray
+     * images repeat the gray value in all three colours and images without
+     * transparency have an alpha of 255.  This is the layout used by the
+     * filters that work on whole pixels, such as blending.
+     */
+    int[] getPackedPixels()
+    {
+        int type = bufferedImage.getType();
+        WritableRaster raster = bufferedImage.getRaster();
+        if((type == BufferedImage.TYPE_INT_RGB ||
+            type == BufferedImage.TYPE_INT_ARGB) && isPlain(raster))
+        {
+            int[] data = ((DataBufferInt)raster.getDataBuffer()).getData();
+            int[] result = data.clone();
+            if(type == BufferedImage.TYPE_INT_RGB)
+                for(int i=0; i<result.length; i++)
+                    result[i] |= 0xFF000000;
+            return result;
+        }
+
+        int[][] planes = getPixelsPlanar();
+        int[] result = new int[getWidth() * getHeight()];
+        for(int i=0; i<result.length; i++)
+        {
+            if(planes.length == 1)
+                result[i] = 0xFF000000 | planes[0][i] * 0x010101;
+            else
+                result[i] = (planes.length == 4 ? planes[3][i] << 24 : 0xFF000000)
+                          | planes[0][i] << 16 | planes[1][i] << 8 | planes[2][i];
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new color EzImage holding pixels packed as 0xAARRGGBB in
+     * row-major order, as returned by getPackedPixels.  The image takes
+     * over the array rather than copying it, so the caller must not change
+     * it afterwards.
+     *
+     * @param  pixels  an array of [height * width] packed pixels
+     * @param  height  the height (in pixels) of the image.
+     * @param  width   the width (in pixels) of the image.
+     * @param  alpha   true to keep the alpha of each pixel, false to make
+     *                 an image without transparency
+     */
+    static EzImage fromPackedPixels(int[] pixels, int height, int width,
+                                    boolean alpha)
+    {
+        if(pixels == null || pixels.length != width * height)
+            throw new IllegalArgumentException(
+                    "pixel array doesn't match the image size");
+        int[] masks = alpha ?
+            new int[] { 0xFF0000, 0xFF00, 0xFF, 0xFF000000 } :
+            new int[] { 0xFF0000, 0xFF00, 0xFF };
+        WritableRaster raster = Raster.createPackedRaster(
+                new DataBufferInt(pixels, pixels.length), width, height,
+                width, masks, null);
+        ColorModel colors = alpha ? ColorModel.getRGBdefault() :
+            new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+        return owning(new BufferedImage(colors, raster, false, null));
+    }
+
+    /**
+     * Returns true if the raster's samples start at the beginning of its
+     * data buffer with no padding between rows, as they do for every image
+     * that is not a sub-image of another.
+     */
+    private static boolean isPlain(Raster raster)
+    {
+        SampleModel model = raster.getSampleModel();
+        return raster.getSampleModelTranslateX() == 0 &&
+               raster.getSampleModelTranslateY() == 0 &&
+               raster.getDataBuffer().getOffset() == 0 &&
+               model instanceof SinglePixelPackedSampleModel &&
+               ((SinglePixelPackedSampleModel)model).getScanlineStride()
+                   == raster.getWidth();
+    }
+
+    /**
+     * Returns a new EzImage with the given bands, each laid out in
+     * row-major format as returned by getPixelsPlanar.  One band makes a
+     * gray-scale image, three make a color image and four make a color
+     * image with transparency.  Pixel values not in the range 0-255 will be
+     * stripped of their higher-order bits.
+     *
+     * @param  planes  an array of [bands][height * width] pixels
+     * @param  height  the height (in pixels) of the image.
+     * @param  width   the width (in pixels) of the image.
+     * @return         a new EzImage holding the pixels
+     * @throws         IllegalArgumentException if the number of bands is not
+     *                 1, 3 or 4, or a band is not height*width long
+     */
+    public static EzImage fromPlanes(int[][] planes, int height, int width)
+    {
+        if(planes == null)
+            throw new IllegalArgumentException("null pixels array");
+        int type;
+        switch (planes.length)
+        {
+            case 1:
+                type = BufferedImage.TYPE_BYTE_GRAY;
+                break;
+            case 3:
+                type = BufferedImage.TYPE_INT_RGB;
+                break;
+            case 4:
+                type = BufferedImage.TYPE_INT_ARGB;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid number of bands.");
+        }
+        for(int k=0; k<planes.length; k++)
+            if(planes[k] == null || planes[k].length != width * height)
+                throw new IllegalArgumentException(
+                        "pixel array doesn't match the image size");
+
+        BufferedImage image = PixelPool.acquireImage(type, width, height);
+        WritableRaster raster = image.getRaster();
+        for(int k=0; k<planes.length; k++)
+            raster.setSamples(0, 0, width, height, k, planes[k]);
+        return owning(image);
+    }
+
+    /**
+     * Returns the summed-area table of the specified band, from which the
+     * sum, mean or variance of any rectangle can be read in constant time.
+     * Build it once and keep it while running many region queries on the
+     * same image; it does not follow later changes to the pixels.
+     *
+     * @param  band         is either RED, GREEN, BLUE, ALPHA, or GRAY
+     * @param  withSquares  true to also support variance queries
+     * @return              the integral image of the band
+     * @throws              IllegalArgumentException if gray band is requested
+     *                      from color image, or vice-versa
+     */
+    public IntegralImage getIntegralImage(int band, boolean withSquares)
+    {
+        return new IntegralImage(getPixels1D(band), getWidth(), getHeight(),
+                                 withSquares);
     }
 
     /**
@@ -492,6 +1094,7 @@ public class EzImage
      *                 is specified.
      */
     public void setPixels(int[] pixels, int band) {
+        ImageEvent event = ImageEvent.start();
         int width = bufferedImage.getWidth();
         int height = bufferedImage.getHeight();
 
@@ -507,14 +1110,15 @@ public class EzImage
             throw new IllegalArgumentException(
                     "Indicated color band for gray image.");
 
-        WritableRaster raster = bufferedImage.getRaster();
-        for(int i=0; i<height; i++)
-        {
-            for(int j=0; j<width; j++)
-            {
-                raster.setSample(j, i, getBandId(band), pixels[i*width + j]);
-            }
+        int bandId = getBandId(band);
+        int[] row = new int[width];
+        int[] old = new int[width];
+        for(int i=0; i<height; i++) {
+            System.arraycopy(pixels, i*width, row, 0, width);
+            writeRow(i, 0, width, bandId, row, old);
         }
+        event.finish("EzImage.setPixels1D", width, height, 1,
+                     (long)width * height);
     }
 
     /**
@@ -550,6 +1154,7 @@ public class EzImage
      */
     public void setPixels(int[][] pixels, int band)
     {
+        ImageEvent event = ImageEvent.start();
         int width = bufferedImage.getWidth();
         int height = bufferedImage.getHeight();
         if(pixels == null || pixels[0] == null ||
@@ -565,12 +1170,16 @@ public class EzImage
             throw new IllegalArgumentException(
                     "Indicated color band for gray image.");
         
-        WritableRaster raster = bufferedImage.getRaster();
+        int bandId = getBandId(band);
+        int[] old = new int[width];
         for(int i=0; i<height; i++) {
-            for(int j=0; j<width; j++) {
-                raster.setSample(j, i, getBandId(band), pixels[i][j]);
-            }
+            if(pixels[i] == null || pixels[i].length != width)
+                throw new IllegalArgumentException(
+                        "pixel array doesn't match the image size");
+            writeRow(i, 0, width, bandId, pixels[i], old);
         }
+        event.finish("EzImage.setPixels2D", width, height, 1,
+                     (long)width * height);
     }
     
     /**
@@ -588,6 +1197,7 @@ public class EzImage
      */
     public void setPixels(int[][][] pixels) 
     {
+        ImageEvent event = ImageEvent.start();
         int width = bufferedImage.getWidth();
         int height = bufferedImage.getHeight();
         int bands = bufferedImage.getSampleModel().getNumBands();
@@ -598,17 +1208,155 @@ public class EzImage
             throw new IllegalArgumentException(
                     "pixel array doesn't match the image size");
 
-        WritableRaster raster = bufferedImage.getRaster();
+        int[] row = new int[width * bands];
+        int[] old = new int[width * bands];
         for(int i=0; i<height; i++)
         {
             for(int j=0; j<width; j++)
             {
                 for(int k=0; k<bands; k++)
                 {
-                    raster.setSample(j, i, k, pixels[i][j][k]);
+                    row[j*bands + k] = pixels[i][j][k];
                 }
             }
+            writeRow(i, 0, width, -1, row, old);
+        }
+        event.finish("EzImage.setPixels3D", width, height, bands,
+                     (long)width * height * bands);
+    }
+
+    /**
+     * Sets the pixels of every band inside a region of the image, laid out
+     * as returned by getPixelsPlanar(region).  Only the region is written,
+     * so the cost depends on its size rather than on the image's.  Pixel
+     * values not in the range 0-255 will be stripped of their higher-order
+     * bits.
+     *
+     * @param  planes  an array of [bands][region.height * region.width]
+     *                 pixels
+     * @param  region  the part of the image to set
+     * @throws         IllegalArgumentException if the region is not inside
+     *                 the image, or the pixels array does not match it
+     */
+    public void setPixelsPlanar(int[][] planes, Rectangle region)
+    {
+        ImageEvent event = ImageEvent.start();
+        checkRegion(region);
+        int width = region.width;
+        if(planes == null || planes.length != numColorBands())
+            throw new IllegalArgumentException(
+                    "pixel array doesn't match the image bands");
+        for(int k=0; k<planes.length; k++)
+            if(planes[k] == null || planes[k].length != width * region.height)
+                throw new IllegalArgumentException(
+                        "pixel array doesn't match the region size");
+
+        int[] row = new int[width];
+        int[] old = new int[width];
+        for(int k=0; k<planes.length; k++)
+            for(int i=0; i<region.height; i++)
+            {
+                System.arraycopy(planes[k], i*width, row, 0, width);
+                writeRow(region.y + i, region.x, width, k, row, old);
+            }
+        event.finish("EzImage.setPixelsPlanar", width, region.height,
+                     planes.length, (long)width * region.height * planes.length);
+    }
+
+    /**
+     * Writes width pixels of one row, starting at the given column, as
+     * samples of one band or, if band is -1, of every band interleaved.
+     * Only the span from the first to the last pixel that actually changes
+     * is written and marked dirty; a row that does not change is not
+     * written at all, so shared pixels are not duplicated for it either.
+     * The old array is scratch space as long as the samples.
+     */
+    private void writeRow(int y, int x, int width, int band, int[] samples,
+                          int[] old)
+    {
+        WritableRaster raster = bufferedImage.getRaster();
+        int step = band < 0 ? raster.getNumBands() : 1;
+        int count = width * step;
+        if(band < 0)
+            raster.getPixels(x, y, width, 1, old);
+        else
+            raster.getSamples(x, y, width, 1, band, old);
+
+        int first = 0;
+        while(first < count && samples[first] == old[first])
+            first++;
+        if(first == count)
+            return;
+        int last = count - 1;
+        while(samples[last] == old[last])
+            last--;
+        first /= step;
+        last /= step;
+        int span = last - first + 1;
+
+        unshare();
+        raster = bufferedImage.getRaster();
+        int[] changed = samples;
+        if(first > 0)
+        {
+            System.arraycopy(samples, first * step, old, 0, span * step);
+            changed = old;
         }
+        if(band < 0)
+            raster.setPixels(x + first, y, span, 1, changed);
+        else
+            raster.setSamples(x + first, y, span, 1, band, changed);
+        markDirty(x + first, y, span, 1);
+    }
+
+    /**
+     * Returns the smallest rectangle holding every pixel changed since the
+     * image was made or clearDirtyRegion was last called, or an empty
+     * rectangle if none has changed.  Pixels are changed by setPixels,
+     * setPixelsPlanar and getBufferedImage; the setPixels methods that
+     * take the whole image only count the pixels whose values really
+     * differ, so editing a small part of an image obtained with getPixels
+     * leaves a small dirty region.  getBufferedImage marks the whole image,
+     * since the pixels can then be changed in any way.
+     *
+     * FilterPipeline uses the dirty region to filter again only what an
+     * edit affects.
+     *
+     * @return   the changed region, in (x = column, y = row) pixels
+     */
+    public Rectangle getDirtyRegion()
+    {
+        return dirty == null ? new Rectangle() : new Rectangle(dirty);
+    }
+
+    /**
+     * Forgets the changes made so far, making the dirty region empty.
+     */
+    public void clearDirtyRegion()
+    {
+        dirty = null;
+    }
+
+    private void markDirty(int x, int y, int width, int height)
+    {
+        if(dirty == null)
+            dirty = new Rectangle(x, y, width, height);
+        else
+            dirty.add(new Rectangle(x, y, width, height));
+    }
+
+    /**
+     * Throws an IllegalArgumentException unless the region is a (possibly
+     * empty) rectangle inside the image.
+     */
+    private void checkRegion(Rectangle region)
+    {
+        if(region == null || region.x < 0 || region.y < 0 ||
+           region.width < 0 || region.height < 0 ||
+           region.x + region.width > getWidth() ||
+           region.y + region.height > getHeight())
+            throw new IllegalArgumentException(
+                    "region is not inside the image");
     }
 
        
@@ -653,11 +1401,15 @@ public class EzImage
     }
     
     /**
-     * Returns the image in BufferedImage format.
+     * Returns the image in BufferedImage format.  Changes made to the
+     * BufferedImage change this EzImage, but not copies made of it.
      * @return   the image in BufferedImage format
      */
     public BufferedImage getBufferedImage()
     {
+        unshare();
+        exposed = true;
+        markDirty(0, 0, getWidth(), getHeight());
         return bufferedImage;
     }
 
@@ -680,29 +1432,522 @@ public class EzImage
     }
 
     /**
-     * Returns a copy of the calling EzImage.
+     * Returns a copy of the calling EzImage.  For ordinary images the copy
+     * shares the pixels of the original until either of them is changed
+     * through setPixels, setPixelsPlanar or getBufferedImage, so copying
+     * is cheap and only images that are actually modified get duplicated.
+     * Off-heap and memory-mapped images are copied onto the heap straight
+     * away, so that releasing the original cannot affect the copy.  So are
+     * images whose BufferedImage was passed to the constructor or obtained
+     * from getBufferedImage, since it may be changed directly.
      * @return     A copy of the EzImage.
      */
     public EzImage copy()
     {
+        if (exposed || bufferedImage.getType() == BufferedImage.TYPE_CUSTOM)
+            return owning(duplicate(bufferedImage));
+
+        synchronized (share)
+        {
+            share.owners++;
+        }
+        EzImage result = owning(bufferedImage);
+        result.share = share;
+        return result;
+    }
+
+    /**
+     * Gives this EzImage its own pixels if it currently shares them with a
+     * copy, and forgets its pyramid.  Every method that changes pixels
+     * calls this first.
+     */
+    private void unshare()
+    {
+        if (pyramid != null)
+        {
+            pyramid.clear();
+            pyramid = null;
+        }
+        // Copy before giving up our share: until then the other owners
+        // still see the pixels as shared and will not write to them.
+        BufferedImage own;
+        synchronized (share)
+        {
+            if (share.owners == 1)
+                return;
+            own = duplicate(bufferedImage);
+            share.owners--;
+        }
+        Metrics.increment("EzImage.copyOnWrite");
+        bufferedImage = own;
+        share = new Share();
+    }
+
+    /**
+     * Returns a new BufferedImage with the same type and pixels.
+     */
+    private static BufferedImage duplicate(BufferedImage image)
+    {
+        // Images with a custom layout, such as mapped raw files, have no
+        // predefined type to create; copy their raster sample by sample.
+        if (image.getType() == BufferedImage.TYPE_CUSTOM)
+        {
+            ColorModel colors = image.getColorModel();
+            WritableRaster raster = colors.createCompatibleWritableRaster(
+                    image.getWidth(), image.getHeight());
+            raster.setRect(image.getRaster());
+            return new BufferedImage(colors, raster,
+                    colors.isAlphaPremultiplied(), null);
+        }
+
         // create the BufferedImage (doesn't include transparency!)
-        BufferedImage result = new BufferedImage(getWidth(),getHeight(),
-                bufferedImage.getType());
+        BufferedImage result = new BufferedImage(image.getWidth(),
+                image.getHeight(), image.getType());
 
         // Draw the input onto the BufferedImage and return
         Graphics g = result.createGraphics();
-        g.drawImage(bufferedImage, 0, 0, null);
+        g.drawImage(image, 0, 0, null);
         g.dispose();
-        return new EzImage(result);
+        return result;
+    }
+
+    /**
+     * Returns a copy of the calling EzImage scaled to the given size.
+     *
+     * @param  height  the height (in pixels) of the result
+     * @param  width   the width (in pixels) of the result
+     * @param  filter  Resize.NEAREST, Resize.BILINEAR, Resize.AREA or
+     *                 Resize.LANCZOS
+     * @return         the scaled image
+     * @throws         IllegalArgumentException if a size is not positive or
+     *                 the filter is unknown
+     */
+    public EzImage resize(int height, int width, int filter)
+    {
+        return Resize.resize(this, height, width, filter);
+    }
+
+    /**
+     * Returns a copy of the calling EzImage scaled down so that its longer
+     * side is at most maxSize pixels, keeping its aspect ratio.
+     *
+     * @param  maxSize  the largest width or height wanted, in pixels
+     * @return          the scaled image
+     */
+    public EzImage scaleToFit(int maxSize)
+    {
+        return Resize.thumbnail(this, maxSize);
+    }
+
+    /**
+     * Returns a copy of the calling EzImage with the layer blended onto it,
+     * the layer's top left corner at the given row and column.  Parts of
+     * the layer outside this image are ignored.
+     *
+     * @param  layer    the image to put on top
+     * @param  mode     Blend.OVER, Blend.MULTIPLY, Blend.SCREEN, Blend.ADD
+     *                  or Blend.MIX
+     * @param  opacity  how strongly the layer shows, from 0 to 1
+     * @param  row      the row where the layer's top goes
+     * @param  column   the column where the layer's left goes
+     * @return          the blended image
+     * @throws          IllegalArgumentException if the mode is unknown or the
+     *                  opacity is outside 0-1
+     */
+    public EzImage blend(EzImage layer, int mode, double opacity,
+                         int row, int column)
+    {
+        return Blend.blend(this, layer, mode, opacity, row, column);
+    }
+
+    /**
+     * Returns a copy of the calling EzImage with a region of the layer
+     * blended onto it, the region's top left corner at the given row and
+     * column.  Parts of the region outside this image are ignored.
+     *
+     * @param  layer    the image to put on top
+     * @param  mode     Blend.OVER, Blend.MULTIPLY, Blend.SCREEN, Blend.ADD
+     *                  or Blend.MIX
+     * @param  opacity  how strongly the layer shows, from 0 to 1
+     * @param  row      the row where the region's top goes
+     * @param  column   the column where the region's left goes
+     * @param  region   the part of the layer to use, in its own pixels
+     * @return          the blended image
+     * @throws          IllegalArgumentException if the mode is unknown, the
+     *                  opacity is outside 0-1 or the region lies outside
+     *                  the layer
+     */
+    public EzImage blend(EzImage layer, int mode, double opacity,
+                         int row, int column, Rectangle region)
+    {
+        return Blend.blend(this, layer, mode, opacity, row, column, region);
+    }
+
+    /**
+     * Returns the number of levels in the pyramid of this EzImage.  Level 0
+     * is the image itself, each level is half the width and height of the
+     * one before (rounded up), and the last level is a single pixel.
+     *
+     * @return   the number of pyramid levels
+     */
+    public int getPyramidLevelCount()
+    {
+        return pyramid().getLevelCount();
+    }
+
+    /**
+     * Returns a copy of the given pyramid level, where each pixel is the
+     * mean of a 2^level by 2^level block of this EzImage.  Levels are built
+     * on first use and cached until this EzImage changes or the cache needs
+     * room, so asking again is cheap.
+     *
+     * @param  level  the level number, from 0 to getPyramidLevelCount()-1
+     * @return        the image at that level
+     * @throws        IllegalArgumentException if the level does not exist
+     */
+    public EzImage getPyramidLevel(int level)
+    {
+        if (level == 0)
+            return copy();
+        return pyramid().getLevel(this, level).copy();
+    }
+
+    /**
+     * Returns a copy of the smallest pyramid level that is still at least
+     * scale times the size of this EzImage, ready to be drawn or resized
+     * down to that scale.
+     *
+     * @param  scale  the wanted size as a fraction of this image, above 0
+     * @return        the nearest pyramid level at or above that scale
+     * @throws        IllegalArgumentException if scale is not positive
+     */
+    public EzImage getPyramidLevelForScale(double scale)
+    {
+        return getPyramidLevel(pyramid().levelForScale(scale));
+    }
+
+    /**
+     * Sets the largest number of bytes that cached pyramid levels of all
+     * images may use together.  The least recently used levels are dropped
+     * first.  The default is 64 MB.
+     *
+     * @param  bytes  the limit in bytes
+     */
+    public static void setPyramidCacheLimit(long bytes)
+    {
+        ImagePyramid.setCacheLimit(bytes);
+    }
+
+    /**
+     * Returns true if the calling EzImage has exactly the same size, bands
+     * and pixel values as the other.  Checking stops at the first
+     * difference, so this is much faster than computing an error measure
+     * when images usually differ.
+     *
+     * @param  other  the image to compare with
+     * @return        true if every pixel value is equal
+     */
+    public boolean isIdentical(EzImage other)
+    {
+        return ImageComparison.identical(this, other);
+    }
+
+    /**
+     * Returns the largest difference between corresponding pixel values of
+     * the calling EzImage and the other, over all bands.
+     *
+     * @param  other  an image of the same size and number of bands
+     * @return        the maximum absolute difference, from 0 to 255
+     * @throws        IllegalArgumentException if the sizes or numbers of
+     *                bands differ
+     */
+    public int maxAbsDifference(EzImage other)
+    {
+        return ImageComparison.maxAbsDifference(this, other);
+    }
+
+    /**
+     * Returns the mean squared difference between corresponding pixel
+     * values of the calling EzImage and the other, over all bands.
+     *
+     * @param  other  an image of the same size and number of bands
+     * @return        the mean squared error
+     * @throws        IllegalArgumentException if the sizes or numbers of
+     *                bands differ
+     */
+    public double meanSquaredError(EzImage other)
+    {
+        return ImageComparison.meanSquaredError(this, other);
+    }
+
+    /**
+     * Returns the peak signal-to-noise ratio of the other image against the
+     * calling EzImage, in decibels.  Higher is more similar; identical
+     * images give positive infinity.
+     *
+     * @param  other  an image of the same size and number of bands
+     * @return        the PSNR in dB
+     * @throws        IllegalArgumentException if the sizes or numbers of
+     *                bands differ
+     */
+    public double psnr(EzImage other)
+    {
+        return ImageComparison.psnr(this, other);
+    }
+
+    /**
+     * Returns the structural similarity (SSIM) of the calling EzImage and
+     * the other, averaged over all 7x7 windows and all bands.  1 means
+     * identical; values near 0 mean unrelated.
+     *
+     * @param  other  an image of the same size and number of bands
+     * @return        the mean SSIM
+     * @throws        IllegalArgumentException if the sizes or numbers of
+     *                bands differ
+     */
+    public double ssim(EzImage other)
+    {
+        return ssim(other, 3);
+    }
+
+    /**
+     * Returns the structural similarity (SSIM) of the calling EzImage and
+     * the other, averaged over all square windows of side 2*radius+1 and
+     * all bands.
+     *
+     * @param  other   an image of the same size and number of bands
+     * @param  radius  the number of pixels on each side of a window's centre
+     * @return         the mean SSIM
+     * @throws         IllegalArgumentException if the sizes or numbers of
+     *                 bands differ or the radius is negative
+     */
+    public double ssim(EzImage other, int radius)
+    {
+        return ImageComparison.ssim(this, other, radius);
+    }
+
+    /**
+     * Returns the raster for reading only; unlike getBufferedImage this
+     * does not unshare the pixels.
+     */
+    Raster readRaster()
+    {
+        return bufferedImage.getRaster();
+    }
+
+    /**
+     * Returns the image for drawing from only, as an image of a predefined
+     * type.  Unlike getBufferedImage this does not unshare the pixels.
+     */
+    BufferedImage readImage()
+    {
+        return toStandardImage();
+    }
+
+    /**
+     * Returns the pixels of the pyramid level for the given scale, as
+     * getPyramidLevelForScale chooses it, for drawing from only.  The
+     * cached level is used as it is rather than copied.
+     */
+    BufferedImage readPyramidLevel(double scale)
+    {
+        int level = pyramid().levelForScale(scale);
+        if (level == 0)
+            return bufferedImage;
+        return pyramid().getLevel(this, level).bufferedImage;
+    }
+
+    private ImagePyramid pyramid()
+    {
+        if (pyramid == null)
+            pyramid = new ImagePyramid(getWidth(), getHeight());
+        return pyramid;
+    }
+
+    /**
+     * Constructs an EzImage object by memory-mapping a raw image file
+     * written by saveRaw.  The pixels are read straight from the mapped
+     * file rather than copied onto the heap, so loading costs about the same
+     * regardless of image size.  Changing the pixels of the EzImage does
+     * not change the file.
+     *
+     * @param  filename  the name of the raw file to load
+     * @return           an EzImage backed by the mapped file
+     * @throws           FileNotFoundException if the file does not exist,
+     *                   IOException if it is not a valid raw image
+     */
+    public static EzImage loadRaw(String filename)
+        throws FileNotFoundException, IOException
+    {
+        File file = new File(filename);
+        if(!file.exists())
+            throw new FileNotFoundException(filename);
+
+        ImageEvent event = ImageEvent.start();
+        return event.finish("EzImage.loadRaw", owning(RawImage.map(file)));
+    }
+
+    /**
+     * Creates an uncompressed raw image file having the specified name,
+     * with the bands of each pixel stored together.  Raw files are meant
+     * for handing images between processing steps: they are written with
+     * one bulk write and loaded by loadRaw without decoding, and nothing
+     * is lost in the round trip.
+     *
+     * @param   filename  the name of the file to be saved
+     * @throws            IOException if the file cannot be created
+     */
+    public void saveRaw(String filename) throws IOException
+    {
+        saveRaw(filename, false);
+    }
+
+    /**
+     * Creates an uncompressed raw image file having the specified name.
+     *
+     * @param   filename  the name of the file to be saved
+     * @param   planar    true to store each band as a separate plane
+     *                    (all red, then all green, then all blue), false to
+     *                    store the bands of each pixel together
+     * @throws            IOException if the file cannot be created
+     */
+    public void saveRaw(String filename, boolean planar) throws IOException
+    {
+        ImageEvent event = ImageEvent.start();
+        RawImage.write(bufferedImage, new File(filename),
+                       planar ? RawImage.PLANAR : RawImage.INTERLEAVED);
+        event.finish("EzImage.saveRaw", this);
+    }
+
+    /**
+     * Constructs a black EzImage whose pixels are stored outside the Java
+     * heap, in a direct buffer.  Large off-heap images do not add to garbage
+     * collection pauses.  All of the pixel methods work as usual; show and the
+     * save methods convert to an ordinary image when they are called.
+     *
+     * @param  height  the height (in pixels) of the image.
+     * @param  width   the width (in pixels) of the image.
+     * @param  bands   1 for gray-scale, 3 for color, 4 for color with
+     *                 transparency
+     * @return         a new off-heap EzImage
+     * @throws         IllegalArgumentException if a size is not positive or
+     *                 the image would not fit in one buffer
+     */
+    public static EzImage allocateDirect(int height, int width, int bands)
+    {
+        if (height <= 0 || width <= 0)
+            throw new IllegalArgumentException("image size must be positive");
+        if (bands != 1 && bands != 3 && bands != 4)
+            throw new IllegalArgumentException("Invalid number of bands.");
+        long size = (long)height * width * bands;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("image is too large");
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int)size);
+        return new EzImage(RawImage.wrap(buffer, width, height, bands,
+                                         RawImage.INTERLEAVED));
+    }
+
+    /**
+     * Returns a copy of this EzImage whose pixels are stored outside the
+     * Java heap.
+     *
+     * @return     an off-heap copy of the EzImage
+     */
+    public EzImage toDirect()
+    {
+        EzImage result = allocateDirect(getHeight(), getWidth(),
+                                        numColorBands());
+        result.bufferedImage.getRaster().setRect(bufferedImage.getRaster());
+        return result;
+    }
+
+    /**
+     * Returns true if the pixels of this image are stored outside the Java
+     * heap, either in a direct buffer or in a memory-mapped raw file.
+     *
+     * @return     true if the image is off-heap
+     */
+    public boolean isDirect()
+    {
+        DataBuffer buffer = bufferedImage.getRaster().getDataBuffer();
+        return buffer instanceof ByteBufferDataBuffer &&
+               ((ByteBufferDataBuffer)buffer).isDirect();
+    }
+
+    /**
+     * Drops this EzImage's reference to the memory of an off-heap image.
+     * The memory is not freed at once; the garbage collector frees it once
+     * nothing else refers to it.  Afterwards the width and height can still
+     * be read, but any pixel access throws IllegalStateException.  It has
+     * no effect on ordinary images.
+     */
+    public void release()
+    {
+        DataBuffer buffer = bufferedImage.getRaster().getDataBuffer();
+        if (buffer instanceof ByteBufferDataBuffer)
+            ((ByteBufferDataBuffer)buffer).release();
+    }
+
+    /**
+     * Gives the pixels of this image to PixelPool, so that an image of the
+     * same size and type made later by fromPlanes or a pixel array
+     * constructor reuses them instead of allocating new ones.  Neither
+     * this EzImage nor a BufferedImage obtained from getBufferedImage may
+     * be used afterwards.  Pixels still shared with a copy are left to the
+     * copy.  Images passed to the EzImage(BufferedImage) constructor belong
+     * to the caller and are never pooled, nor are off-heap images and
+     * sub-images.  Recycling an image a second time has no effect.
+     */
+    public void recycle()
+    {
+        if (bufferedImage == null)
+            return;
+        if (pyramid != null)
+        {
+            pyramid.clear();
+            pyramid = null;
+        }
+        boolean shared;
+        synchronized (share)
+        {
+            shared = share.owners > 1;
+            share.owners--;
+        }
+        if (!shared && allocated &&
+            bufferedImage.getRaster().getParent() == null)
+            PixelPool.releaseImage(bufferedImage);
+        bufferedImage = null;
+    }
+
+    /**
+     * Returns the image as an ordinary heap BufferedImage of a predefined
+     * type, which Swing can draw and the image writers can encode quickly.
+     * Images that already are one are returned as they are.
+     */
+    private BufferedImage toStandardImage()
+    {
+        if (bufferedImage.getType() != BufferedImage.TYPE_CUSTOM)
+            return bufferedImage;
+
+        int bands = numColorBands();
+        int type = bands == 1 ? BufferedImage.TYPE_BYTE_GRAY :
+                   bands == 3 ? BufferedImage.TYPE_INT_RGB :
+                   BufferedImage.TYPE_INT_ARGB;
+        BufferedImage result = new BufferedImage(getWidth(), getHeight(), type);
+        result.getRaster().setRect(bufferedImage.getRaster());
+        return result;
     }
 
     private static class ImagePanel extends JPanel
     {
         private static final long serialVersionUID = 123L;
+        private EzImage source;
         private BufferedImage image;
 
         public ImagePanel(EzImage im)
         {
+            source = im;
             image = im.bufferedImage;
             setMinimumSize(new Dimension(im.getWidth(), im.getHeight()));
         }
@@ -712,15 +1957,30 @@ public class EzImage
             g.setColor(getBackground());
             g.fillRect(0, 0, getWidth(), getHeight());
 
+            // shrink the image to fit the panel, starting from the pyramid
+            // level nearest that size so that drawing it is cheap
+            int width = source.getWidth();
+            int height = source.getHeight();
+            double scale = Math.min(1.0, Math.min(
+                    (double)getWidth() / width, (double)getHeight() / height));
+            if(scale < 1.0 && scale > 0)
+            {
+                width = Math.max(1, (int)(width * scale));
+                height = Math.max(1, (int)(height * scale));
+                image = source.readPyramidLevel(scale);
+            }
+            else
+                image = source.bufferedImage;
+
             // center the image
-            int dx = (getWidth() - image.getWidth()) / 2;
+            int dx = (getWidth() - width) / 2;
             if(dx < 0)
                 dx = 0;
 
-            int dy = (getHeight() - image.getHeight()) / 2;
+            int dy = (getHeight() - height) / 2;
             if( dy < 0 )
                 dy = 0;
-            g.drawImage(image, dx, dy, this);
+            g.drawImage(image, dx, dy, width, height, this);
         }
     }
     
@@ -748,7 +2008,12 @@ public class EzImage
     public void show(String title, int row, int column)
     {
         JFrame window = new JFrame(title);
-        window.getContentPane().add(new ImagePanel(this.copy()));
+        // Custom layouts, such as off-heap images, are converted to a
+        // standard type, which also copies them.
+        EzImage snapshot =
+            bufferedImage.getType() == BufferedImage.TYPE_CUSTOM ?
+            owning(toStandardImage()) : copy();
+        window.getContentPane().add(new ImagePanel(snapshot));
         window.getContentPane().setPreferredSize
             (new Dimension(getWidth(),getHeight()));
         window.pack();
@@ -780,18 +2045,235 @@ public class EzImage
      *                    supported
      */
     public void save(String filename, String format) throws IOException {
-        boolean validType = false;
-        for (int i=0; i < WRITER_TYPES.length; i++)
-            if (format.equals(WRITER_TYPES[i]))
+        save(filename, format, DEFAULT_QUALITY);
+    }
+
+    /**
+     * Creates an image file having the specified name and of the specified
+     * format, encoded at the given quality.  For lossy formats such as JPEG
+     * the quality trades file size against fidelity; for lossless formats
+     * such as PNG it trades file size against encoding speed.  Formats that
+     * have no compression setting ignore it.
+     *
+     * @param   filename  the name of the file to be saved
+     * @param   format    String containing one of the supported Java file
+     *                    types
+     * @param   quality   from 0 (smallest file) to 1 (best quality or
+     *                    fastest encoding)
+     * @throws            IOException if the file cannot be created,
+     *                    IllegalArgumentException if the file type is not
+     *                    supported or the quality is out of range
+     */
+    public void save(String filename, String format, float quality)
+        throws IOException
+    {
+        if (quality != DEFAULT_QUALITY && (quality < 0 || quality > 1))
+            throw new IllegalArgumentException("quality must be from 0 to 1");
+
+        ImageWriter writer = getWriter(format);
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (quality != DEFAULT_QUALITY && param.canWriteCompressed())
+        {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            if (param.getCompressionType() == null)
+                param.setCompressionType(param.getCompressionTypes()[0]);
+            param.setCompressionQuality(quality);
+        }
+
+        write(toStandardImage(), filename, writer, param);
+    }
+
+    /**
+     * Writes the image, encoded in the specified format, to a stream such
+     * as a network connection.  The stream is flushed but not closed.
+     *
+     * @param   output  the stream to write to
+     * @param   format  String containing one of the supported Java file
+     *                  types
+     * @throws          IOException if the stream cannot be written,
+     *                  IllegalArgumentException if the file type is not
+     *                  supported
+     */
+    public void save(OutputStream output, String format) throws IOException
+    {
+        ImageWriter writer = getWriter(format);
+        ImageOutputStream stream = ImageIO.createImageOutputStream(output);
+        if (stream == null)
+            throw new IOException("Cannot write to the stream");
+        write(toStandardImage(), stream, writer,
+              writer.getDefaultWriteParam());
+        output.flush();
+    }
+
+    /**
+     * Encodes the image into the named file with the writer and settings.
+     */
+    private static void write(BufferedImage image, String filename,
+                              ImageWriter writer, ImageWriteParam param)
+        throws IOException
+    {
+        File file = new File(filename);
+        file.delete();
+        ImageOutputStream output = ImageIO.createImageOutputStream(file);
+        if (output == null)
+            throw new IOException("Cannot create " + filename);
+        write(image, output, writer, param);
+    }
+
+    /**
+     * Encodes the image into the stream with the writer and settings, and
+     * closes the stream.
+     */
+    private static void write(BufferedImage image, ImageOutputStream output,
+                              ImageWriter writer, ImageWriteParam param)
+        throws IOException
+    {
+        ImageEvent event = ImageEvent.start();
+        try
+        {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        }
+        finally
+        {
+            writer.reset();
+            output.close();
+        }
+        int bands = image.getRaster().getNumBands();
+        event.finish("EzImage.save", image.getWidth(), image.getHeight(),
+                     bands, (long)image.getWidth() * image.getHeight() * bands);
+    }
+
+    /**
+     * Creates a file with the image reduced to a palette of at most the
+     * given number of colors, stored with one byte per pixel.  This is
+     * meant for PNG and GIF, which hold such indexed images much more
+     * compactly than full color.  Transparency is not kept.
+     *
+     * @param   filename  the name of the file to be saved
+     * @param   format    "png" or "gif" (or another type that supports
+     *                    indexed color)
+     * @param   colors    the largest number of colors, from 1 to 256
+     * @param   dither    ColorQuantizer.NONE, ColorQuantizer.ORDERED or
+     *                    ColorQuantizer.FLOYD_STEINBERG
+     * @throws            IOException if the file cannot be created,
+     *                    IllegalArgumentException if the file type, number
+     *                    of colors or dither mode is not valid
+     */
+    public void saveIndexed(String filename, String format, int colors,
+                            int dither) throws IOException
+    {
+        ImageWriter writer = getWriter(format);
+        ColorQuantizer quantizer =
+            new ColorQuantizer(ColorQuantizer.buildPalette(this, colors));
+        write(quantizer.toIndexed(this, dither), filename, writer,
+              writer.getDefaultWriteParam());
+    }
+
+    /**
+     * Creates a JPEG file having the specified name at the given quality.
+     *
+     * @param   filename  the name of the file to be saved
+     * @param   quality   from 0 (smallest file) to 1 (best quality); 0.75 is
+     *                    the usual default
+     * @throws            IOException if the file cannot be created
+     */
+    public void saveJpeg(String filename, float quality) throws IOException
+    {
+        save(filename, "jpeg", quality);
+    }
+
+    /**
+     * Creates a PNG file having the specified name at the given compression
+     * level.  PNG is lossless, so the level only trades file size against
+     * encoding time.
+     *
+     * @param   filename  the name of the file to be saved
+     * @param   level     the deflate level, from 0 (fastest, largest) to 9
+     *                    (slowest, smallest)
+     * @throws            IOException if the file cannot be created,
+     *                    IllegalArgumentException if the level is not 0-9
+     */
+    public void savePng(String filename, int level) throws IOException
+    {
+        if (level < 0 || level > 9)
+            throw new IllegalArgumentException("level must be from 0 to 9");
+        save(filename, "png", 1 - level / 9f);
+    }
+
+    /**
+     * Starts saving the image in the background and returns immediately,
+     * so that encoding can overlap with further work.  The pixels are
+     * captured when this method is called; later changes to this EzImage do
+     * not affect the file.
+     *
+     * @param   filename  the name of the file to be saved
+     * @param   format    String containing one of the supported Java file
+     *                    types
+     * @param   quality   from 0 (smallest file) to 1 (best quality or
+     *                    fastest encoding)
+     * @return            a future that completes when the file is written, or
+     *                    completes exceptionally with the IOException or
+     *                    IllegalArgumentException that save would throw
+     */
+    public CompletableFuture<Void> saveAsync(final String filename,
+                                             final String format,
+                                             final float quality)
+    {
+        final EzImage snapshot = copy();
+        final CompletableFuture<Void> result =
+            new CompletableFuture<Void>();
+        Encoder.POOL.execute(new Runnable()
             {
-                validType = true;
-                break;
-            }
-        
-        if (!validType)
-            throw new IllegalArgumentException("File type is not valid.");
+                public void run()
+                {
+                    try
+                    {
+                        snapshot.save(filename, format, quality);
+                        result.complete(null);
+                    }
+                    catch (Throwable t)
+                    {
+                        result.completeExceptionally(t);
+                    }
+                }
+            });
+        return result;
+    }
 
-        ImageIO.write(bufferedImage, format, new File(filename));
+    /**
+     * Returns this thread's ImageWriter for the format, creating it the
+     * first time the thread saves in that format.
+     */
+    private static ImageWriter getWriter(String format)
+    {
+        Map<String, ImageWriter> writers = WRITERS.get();
+        ImageWriter writer = writers.get(format);
+        if (writer == null)
+        {
+            Iterator<ImageWriter> found = ImageIO.getImageWritersByFormatName(format);
+            if (!found.hasNext())
+                throw new IllegalArgumentException("File type is not valid.");
+            writer = found.next();
+            writers.put(format, writer);
+        }
+        return writer;
+    }
+
+    // Threads for saveAsync, created the first time it is called.
+    private static class Encoder
+    {
+        static final ExecutorService POOL = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "EzImage encoder");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
     }
 
 
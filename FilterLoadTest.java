@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FilterLoadTest.java
+ *
+ * Sends filter requests to a running FilterServer from several threads at
+ * once and reports the throughput and the latency percentiles, separately
+ * for responses served from the server's cache and for those that were
+ * decoded, filtered and encoded.  Every request uploads the same image;
+ * giving several chains separated by semicolons makes the requests cycle
+ * through them.
+ *
+ * Usage: java FilterLoadTest [-nocache] url image chains [threads] [requests]
+ * for example
+ *     java FilterLoadTest -nocache http://localhost:8080 jackets.jpg \
+ *          "negate;onlyRed;gaussianBlur:2,sobel" 16 2000
+ * The defaults are 8 threads and 1,000 requests.  A tenth of the requests
+ * (at least one per thread) are sent first as warmup and not counted.
+ * Since the warmup fills the cache, without -nocache nearly every
+ * measured request is a hit; -nocache asks the server to bypass its cache,
+ * so that every request pays for the filters.
+ *
+ * @author shreya-va
+ */
+public class FilterLoadTest
+{
+    public static void main(String[] args) throws Exception
+    {
+        boolean nocache = args.length > 0 && args[0].equals("-nocache");
+        if (nocache)
+            args = Arrays.copyOfRange(args, 1, args.length);
+        if (args.length < 3)
+        {
+            System.out.println("Usage: java FilterLoadTest [-nocache] url" +
+                               " image chains [threads] [requests]");
+            return;
+        }
+        String url = args[0].replaceAll("/+$", "");
+        byte[] image = Files.readAllBytes(Paths.get(args[1]));
+        String[] chains = args[2].split(";");
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        int requests = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+
+        URI[] targets = new URI[chains.length];
+        for (int i = 0; i < chains.length; i++)
+            targets[i] = URI.create(url + "/filter?chain=" +
+                    URLEncoder.encode(chains[i], StandardCharsets.UTF_8) +
+                    (nocache ? "&nocache=1" : ""));
+        HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1).build();
+
+        run(client, targets, image, threads,
+            Math.max(threads, requests / 10), null);
+        Result result = new Result(requests);
+        long start = System.nanoTime();
+        run(client, targets, image, threads, requests, result);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int done = result.done.get();
+        System.out.printf("%-10s %8s %8s %10s %10s %10s %10s %10s%n",
+                          "Responses", "Count", "Errors", "Req/s",
+                          "p50 (ms)", "p90 (ms)", "p99 (ms)", "Max (ms)");
+        print("all", result, done, seconds, 0);
+        print("miss", result, done, seconds, MISS);
+        print("hit", result, done, seconds, HIT);
+    }
+
+    // Outcomes of a request.
+    private static final int MISS = 1;
+    private static final int HIT = 2;
+    private static final int ERROR = 3;
+
+    /**
+     * Prints one row of the report, for the requests with the given
+     * outcome, or for all of them if outcome is 0.  Errors count in every
+     * row but add no latency.
+     */
+    private static void print(String label, Result result, int done,
+                              double seconds, int outcome)
+    {
+        long[] times = new long[done];
+        int count = 0;
+        int errors = 0;
+        for (int i = 0; i < done; i++)
+        {
+            if (result.outcomes[i] == ERROR)
+                errors++;
+            else if (outcome == 0 || result.outcomes[i] == outcome)
+                times[count++] = result.nanos[i];
+        }
+        times = Arrays.copyOf(times, count);
+        Arrays.sort(times);
+        System.out.printf("%-10s %8d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+                          label, count, errors, count / seconds,
+                          percentile(times, 0.5), percentile(times, 0.9),
+                          percentile(times, 0.99), percentile(times, 1));
+    }
+
+    // Latencies and outcomes of the measured requests.
+    private static class Result
+    {
+        final long[] nanos;
+        final int[] outcomes;
+        final AtomicInteger done = new AtomicInteger();
+
+        Result(int requests)
+        {
+            nanos = new long[requests];
+            outcomes = new int[requests];
+        }
+    }
+
+    /**
+     * Sends the requests from the given number of threads, recording them
+     * in result unless it is null.
+     */
+    private static void run(final HttpClient client, final URI[] targets,
+                            final byte[] image, int threads,
+                            final int requests, final Result result)
+        throws InterruptedException
+    {
+        final AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++)
+            pool.execute(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < requests)
+                {
+                    HttpRequest request = HttpRequest
+                        .newBuilder(targets[i % targets.length])
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(image))
+                        .build();
+                    long begin = System.nanoTime();
+                    boolean ok;
+                    boolean hit = false;
+                    try
+                    {
+                        HttpResponse<byte[]> response = client.send(request,
+                                HttpResponse.BodyHandlers.ofByteArray());
+                        ok = response.statusCode() == 200;
+                        hit = response.headers().firstValue("X-Cache")
+                            .orElse("").equals("hit");
+                    }
+                    catch (IOException e)
+                    {
+                        ok = false;
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    long time = System.nanoTime() - begin;
+                    if (result == null)
+                        continue;
+                    int slot = result.done.getAndIncrement();
+                    result.nanos[slot] = time;
+                    result.outcomes[slot] = !ok ? ERROR : hit ? HIT : MISS;
+                }
+            });
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.DAYS);
+    }
+
+    // The given fraction of the sorted times, in milliseconds.
+    private static double percentile(long[] sorted, double fraction)
+    {
+        if (sorted.length == 0)
+            return 0;
+        int index = (int)Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,250 @@
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * A FilterPipeline applies a chain of filters to every band of an image,
+ * and when the image is edited, filters again only the part the edit can
+ * affect.  It is meant for interactive editing of large images, where
+ * each change should cost in proportion to the change rather than to the
+ * image.
+ *
+ * The output is divided into square tiles.  The first call to apply
+ * computes every tile; later calls with the same image read its dirty
+ * region (see EzImage.getDirtyRegion), grow it by the halo of the chain
+ * (the sum of the radii of its neighbourhood filters), and compute again
+ * only the tiles that overlap it.  The other tiles keep their earlier
+ * output.  Each tile is filtered from the input tile plus the halo, so
+ * its output is exactly what filtering the whole image would give.  Tiles
+ * are computed in parallel.
+ *
+ * The output image belongs to the pipeline and is updated in place by
+ * later calls, which mark the tiles that changed as its dirty region.  It
+ * can therefore be fed to another pipeline or to PreviewWindow.update;
+ * use copy() to keep a result.
+ *
+ * @author shreya-va
+ */
+public class FilterPipeline
+{
+    // Side of the square tiles, in pixels.
+    private static final int TILE = 128;
+
+    /**
+     * A filter on one band of pixels, such as MedianFilter.filter.  It
+     * must return a new array and must not change the one it is given.
+     */
+    public interface BandFilter
+    {
+        /**
+         * Returns the filtered band.
+         *
+         * @param  pixels  an array of [height * width] pixels in row-major
+         *                 format
+         * @param  width   the width (in pixels) of the band
+         * @param  height  the height (in pixels) of the band
+         * @return         a new array of [height * width] results
+         */
+        int[] filter(int[] pixels, int width, int height);
+    }
+
+    // One filter and how far from a pixel it looks.
+    private static class Stage
+    {
+        final int radius;
+        final BandFilter filter;
+
+        Stage(int radius, BandFilter filter)
+        {
+            this.radius = radius;
+            this.filter = filter;
+        }
+    }
+
+    private final List<Stage> stages = new ArrayList<Stage>();
+    private int halo;
+
+    // The image last filtered and the result, kept for incremental calls.
+    private EzImage source;
+    private EzImage output;
+
+    /**
+     * Adds a convolution with the kernel.  Results are clamped to the
+     * range 0-255, as by Convolution.convolve(EzImage, kernel).
+     *
+     * @param  kernel  the kernel to apply
+     * @return         this pipeline
+     */
+    public FilterPipeline addConvolution(final ConvolutionKernel kernel)
+    {
+        int radius = Math.max(kernel.getWidth(), kernel.getHeight()) / 2;
+        return add(radius, (pixels, width, height) -> {
+            int[] result = Convolution.convolve(pixels, width, height, kernel);
+            Convolution.clamp(result);
+            return result;
+        });
+    }
+
+    /**
+     * Adds a median filter over squares of side 2*radius+1.
+     *
+     * @param  radius  the number of pixels on each side of the centre
+     * @return         this pipeline
+     */
+    public FilterPipeline addMedian(int radius)
+    {
+        return addPercentile(radius, 0.5);
+    }
+
+    /**
+     * Adds a percentile filter over squares of side 2*radius+1.
+     *
+     * @param  radius      the number of pixels on each side of the centre
+     * @param  percentile  the rank to pick, from 0 to 1
+     * @return             this pipeline
+     */
+    public FilterPipeline addPercentile(final int radius,
+                                        final double percentile)
+    {
+        if (radius < 0)
+            throw new IllegalArgumentException("radius must not be negative");
+        if (percentile < 0 || percentile > 1)
+            throw new IllegalArgumentException("percentile must be from 0 to 1");
+        return add(radius, (pixels, width, height) ->
+                   MedianFilter.filter(pixels, width, height, radius,
+                                       percentile));
+    }
+
+    /**
+     * Adds any filter.  The radius is how many pixels away from a pixel
+     * the filter reads to compute it: 0 for filters that work on each
+     * pixel alone, such as a contrast change.  Pixels beyond the edges of
+     * the band must be treated as copies of the nearest edge pixel, as
+     * Convolution and MedianFilter do; otherwise tiles would not match the
+     * whole image.
+     *
+     * @param  radius  how far the filter looks, in pixels
+     * @param  filter  the filter
+     * @return         this pipeline
+     * @throws         IllegalArgumentException if the radius is negative
+     */
+    public FilterPipeline add(int radius, BandFilter filter)
+    {
+        if (radius < 0)
+            throw new IllegalArgumentException("radius must not be negative");
+        stages.add(new Stage(radius, filter));
+        halo += radius;
+        invalidate();
+        return this;
+    }
+
+    /**
+     * Forgets the cached output, so that the next call to apply filters the
+     * whole image.
+     */
+    public void invalidate()
+    {
+        source = null;
+        output = null;
+    }
+
+    /**
+     * Returns the image filtered by every filter in turn.  If the image is
+     * the one given last time and has the same size, only the tiles
+     * affected by its dirty region are filtered again.  The image's dirty
+     * region is cleared, since the output now accounts for it.
+     *
+     * @param  image  the image to filter
+     * @return        the filtered image, owned by this pipeline
+     */
+    public EzImage apply(EzImage image)
+    {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final Rectangle bounds = new Rectangle(width, height);
+        boolean full = image != source || output == null ||
+                       output.getWidth() != width ||
+                       output.getHeight() != height ||
+                       output.numColorBands() != image.numColorBands();
+        Rectangle changed = full ? bounds : image.getDirtyRegion();
+        image.clearDirtyRegion();
+        source = image;
+        if (changed.isEmpty())
+            return output;
+
+        // The tiles whose output can depend on a changed pixel.
+        changed.grow(halo, halo);
+        changed = changed.intersection(bounds);
+        final int tx0 = changed.x / TILE;
+        final int ty0 = changed.y / TILE;
+        final int across = (changed.x + changed.width - 1) / TILE - tx0 + 1;
+        int down = (changed.y + changed.height - 1) / TILE - ty0 + 1;
+
+        final int[][][] tiles = new int[across * down][][];
+        IntStream.range(0, tiles.length).parallel().forEach(t ->
+            tiles[t] = filterTile(image, tile(tx0 + t % across, ty0 + t / across,
+                                              width, height)));
+
+        if (full)
+        {
+            int[][] planes = new int[image.numColorBands()][width * height];
+            for (int t = 0; t < tiles.length; t++)
+            {
+                Rectangle r = tile(tx0 + t % across, ty0 + t / across,
+                                   width, height);
+                for (int k = 0; k < planes.length; k++)
+                    for (int y = 0; y < r.height; y++)
+                        System.arraycopy(tiles[t][k], y * r.width, planes[k],
+                                         (r.y + y) * width + r.x, r.width);
+            }
+            output = EzImage.fromPlanes(planes, height, width);
+        }
+        else
+        {
+            for (int t = 0; t < tiles.length; t++)
+                output.setPixelsPlanar(tiles[t], tile(tx0 + t % across,
+                                       ty0 + t / across, width, height));
+        }
+        return output;
+    }
+
+    /**
+     * Returns the rectangle of the tile in the given column and row of
+     * tiles, cut short at the right and bottom edges of the image.
+     */
+    private static Rectangle tile(int column, int row, int width, int height)
+    {
+        int x = column * TILE;
+        int y = row * TILE;
+        return new Rectangle(x, y, Math.min(TILE, width - x),
+                             Math.min(TILE, height - y));
+    }
+
+    /**
+     * Returns the output of every band in the tile, read with a margin of
+     * the halo (where the image has one) and cut back to the tile.
+     */
+    private int[][] filterTile(EzImage image, Rectangle tile)
+    {
+        Rectangle area = new Rectangle(tile);
+        area.grow(halo, halo);
+        area = area.intersection(new Rectangle(image.getWidth(),
+                                               image.getHeight()));
+        int[][] planes = image.getPixelsPlanar(area);
+        int dx = tile.x - area.x;
+        int dy = tile.y - area.y;
+        for (int k = 0; k < planes.length; k++)
+        {
+            int[] band = planes[k];
+            for (Stage stage : stages)
+                band = stage.filter.filter(band, area.width, area.height);
+            int[] result = new int[tile.width * tile.height];
+            for (int y = 0; y < tile.height; y++)
+                System.arraycopy(band, (dy + y) * area.width + dx, result,
+                                 y * tile.width, tile.width);
+            planes[k] = result;
+        }
+        return planes;
+    }
+}
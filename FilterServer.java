@@ -0,0 +1,480 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FilterServer is a local HTTP service that runs PhotoLab filters.  It is
+ * built on the JDK's HttpServer, so it needs nothing beyond Java itself.
+ *
+ * Requests name a chain of filters, applied left to right, and give the
+ * image either as the body of a POST or as the path of a file under the
+ * server's root directory:
+ * <pre>
+ *     curl --data-binary @jackets.jpg \
+ *          "http://localhost:8080/filter?chain=negate,gaussianBlur:2"
+ *     curl "http://localhost:8080/filter?chain=onlyRed&amp;image=jackets.jpg"
+ * </pre>
+ * The response is the result encoded as PNG, or as the format given.
+ * Filters that take a number are written name:number.  Adding nocache=1
+ * to the query makes the server filter the image even if the result is
+ * cached, and not cache it, which is how FilterLoadTest measures the cost
+ * of the filters themselves.  GET /filters lists
+ * the filters and GET /metrics returns Metrics.dump().
+ *
+ * Each request runs on its own thread: a virtual thread when Java has
+ * them (21 and later), otherwise a thread from a cached pool.  Decoding,
+ * filtering and encoding are CPU-bound, so a semaphore lets only as many
+ * requests do them at once as there are processors; the others wait, and
+ * get 503 if they wait too long.  Results are cached, keyed by a SHA-256
+ * hash of the input, the chain and the format, so repeating a request
+ * costs only the hashing.  (colourful without a seed therefore gives the
+ * same result for the same input until it leaves the cache; with one, as
+ * in colourful:42, it always does.)
+ *
+ * FilterLoadTest sends requests to a running server and reports latency
+ * percentiles.
+ *
+ * @author shreya-va
+ */
+public class FilterServer
+{
+    private static final int DEFAULT_PORT = 8080;
+    private static final long DEFAULT_CACHE_BYTES = 64L << 20;
+    private static final int MAX_UPLOAD = 64 << 20;
+    private static final long PERMIT_TIMEOUT_SECONDS = 30;
+
+    // One step of a chain; argument is null if none was given.
+    private interface Filter
+    {
+        EzImage apply(PhotoLab lab, EzImage image, String argument);
+    }
+
+    private static final Map<String, Filter> FILTERS =
+        new LinkedHashMap<String, Filter>();
+
+    static
+    {
+        FILTERS.put("onlyRed", (lab, image, arg) -> lab.onlyRed(image));
+        FILTERS.put("negate", (lab, image, arg) -> lab.negate(image));
+        FILTERS.put("colourful", (lab, image, arg) -> arg == null ?
+                    lab.colourful(image) :
+                    lab.colourful(image, (long)number(arg, 0)));
+        FILTERS.put("inOrder", (lab, image, arg) -> lab.inOrder(image));
+        FILTERS.put("gray", (lab, image, arg) -> image.copyToGrayScale());
+        FILTERS.put("gaussianBlur", (lab, image, arg) ->
+                    lab.gaussianBlur(image, number(arg, 1)));
+        FILTERS.put("boxBlur", (lab, image, arg) ->
+                    lab.boxBlur(image, (int)number(arg, 1)));
+        FILTERS.put("sharpen", (lab, image, arg) -> lab.sharpen(image));
+        FILTERS.put("sobel", (lab, image, arg) -> lab.sobel(image));
+        FILTERS.put("median", (lab, image, arg) ->
+                    lab.median(image, (int)number(arg, 1)));
+        FILTERS.put("hueShift", (lab, image, arg) ->
+                    lab.hueShift(image, (int)number(arg, 180)));
+        FILTERS.put("saturate", (lab, image, arg) ->
+                    lab.saturate(image, number(arg, 1.5)));
+        FILTERS.put("reduceColors", (lab, image, arg) ->
+                    lab.reduceColors(image, (int)number(arg, 16), true));
+        FILTERS.put("thumbnail", (lab, image, arg) ->
+                    image.scaleToFit((int)number(arg, 256)));
+        FILTERS.put("equalize", (lab, image, arg) -> lab.equalize(image));
+        FILTERS.put("clahe", (lab, image, arg) ->
+                    lab.clahe(image, 8, number(arg, 3)));
+        FILTERS.put("autoLevels", (lab, image, arg) ->
+                    lab.autoLevels(image, number(arg, 0.005)));
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final ResultCache cache;
+    private final Path root;
+    private final PhotoLab lab = new PhotoLab();
+
+    /**
+     * Constructs a server listening on the loopback address.  It does not
+     * accept requests until start is called.
+     *
+     * @param  port         the port, or 0 to pick a free one
+     * @param  root         the directory that image paths are relative to;
+     *                      files outside it cannot be read
+     * @param  parallelism  the most requests that filter at once
+     * @param  cacheBytes   the most memory used for cached results
+     * @throws              IOException if the port cannot be opened or
+     *                      the root directory does not exist
+     */
+    public FilterServer(int port, Path root, int parallelism, long cacheBytes)
+        throws IOException
+    {
+        if (parallelism < 1)
+            throw new IllegalArgumentException(
+                    "parallelism must be at least 1");
+        this.root = root.toRealPath();
+        this.permits = new Semaphore(parallelism, true);
+        this.cache = new ResultCache(cacheBytes);
+        this.executor = newExecutor();
+        InetAddress local = InetAddress.getLoopbackAddress();
+        this.server = HttpServer.create(new InetSocketAddress(local, port), 0);
+        server.setExecutor(executor);
+        server.createContext("/filter", this::handleFilter);
+        server.createContext("/filters", this::handleList);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for those running to
+     * finish, and releases the threads.
+     */
+    public void stop()
+    {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return   the port number
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Runs a server until the process is stopped.
+     *
+     * Usage: java FilterServer [port] [root directory]
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        Path root = Paths.get(args.length > 1 ? args[1] : ".");
+        int processors = Runtime.getRuntime().availableProcessors();
+        FilterServer server = new FilterServer(port, root, processors,
+                                               DEFAULT_CACHE_BYTES);
+        server.start();
+        System.out.println("Filtering on http://localhost:" + server.getPort() +
+                           "/filter, images from " + server.root);
+    }
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread, or
+     * on a cached pool of daemon threads where Java has no virtual threads.
+     * Looked up by reflection so that the class still compiles and runs on
+     * Java 17.
+     */
+    private static ExecutorService newExecutor()
+    {
+        try
+        {
+            Method virtual = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)virtual.invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "FilterServer request");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private void handleFilter(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            Map<String, String> query = parseQuery(exchange.getRequestURI()
+                                                   .getRawQuery());
+            String chain = query.get("chain");
+            if (chain == null || chain.isEmpty())
+                throw new IllegalArgumentException("missing chain");
+            String[] steps = chain.split(",");
+            for (String step : steps)
+                if (!FILTERS.containsKey(name(step)))
+                    throw new IllegalArgumentException(
+                            "unknown filter " + name(step));
+            String format = query.getOrDefault("format", "png");
+
+            byte[] input;
+            String method = exchange.getRequestMethod();
+            if (method.equals("POST"))
+                input = readBody(exchange.getRequestBody());
+            else if (method.equals("GET") && query.containsKey("image"))
+                input = readImageFile(query.get("image"));
+            else if (method.equals("GET"))
+                throw new IllegalArgumentException("missing image");
+            else
+            {
+                send(exchange, 405, "text/plain", bytes("use GET or POST"));
+                return;
+            }
+
+            boolean bypass = query.containsKey("nocache");
+            String key = bypass ? null :
+                hash(input) + "|" + chain + "|" + format;
+            byte[] output = bypass ? null : cache.get(key);
+            if (output != null)
+            {
+                Metrics.increment("FilterServer.cacheHit");
+                exchange.getResponseHeaders().set("X-Cache", "hit");
+            }
+            else
+            {
+                Metrics.increment(bypass ? "FilterServer.cacheBypass" :
+                                  "FilterServer.cacheMiss");
+                output = run(input, steps, format);
+                if (output == null)
+                {
+                    Metrics.increment("FilterServer.busy");
+                    send(exchange, 503, "text/plain", bytes("server busy"));
+                    return;
+                }
+                if (!bypass)
+                    cache.put(key, output);
+                exchange.getResponseHeaders().set("X-Cache",
+                                                  bypass ? "bypass" : "miss");
+            }
+            send(exchange, 200, "image/" + format.toLowerCase(), output);
+        }
+        catch (IllegalArgumentException e)
+        {
+            send(exchange, 400, "text/plain", bytes(e.getMessage()));
+        }
+        catch (SecurityException e)
+        {
+            send(exchange, 403, "text/plain", bytes(e.getMessage()));
+        }
+        catch (NoSuchFileException e)
+        {
+            send(exchange, 404, "text/plain", bytes("no such image"));
+        }
+        catch (IOException e)
+        {
+            send(exchange, 400, "text/plain",
+                 bytes(String.valueOf(e.getMessage())));
+        }
+        catch (RuntimeException e)
+        {
+            send(exchange, 500, "text/plain", bytes(e.toString()));
+        }
+    }
+
+    /**
+     * Decodes, filters and encodes while holding one of the CPU permits.
+     * Returns null if no permit became free in time.
+     */
+    private byte[] run(byte[] input, String[] steps, String format)
+        throws IOException
+    {
+        boolean acquired;
+        try
+        {
+            acquired = permits.tryAcquire(PERMIT_TIMEOUT_SECONDS,
+                                          TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (!acquired)
+            return null;
+        try
+        {
+            EzImage image = new EzImage(new ByteArrayInputStream(input));
+            for (String step : steps)
+            {
+                int colon = step.indexOf(':');
+                String argument = colon < 0 ? null : step.substring(colon + 1);
+                image = FILTERS.get(name(step)).apply(lab, image, argument);
+            }
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            image.save(encoded, format);
+            return encoded.toByteArray();
+        }
+        finally
+        {
+            permits.release();
+        }
+    }
+
+    private void handleList(HttpExchange exchange) throws IOException
+    {
+        send(exchange, 200, "text/plain",
+             bytes(String.join("\n", FILTERS.keySet()) + "\n"));
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException
+    {
+        send(exchange, 200, "text/plain", bytes(Metrics.dump()));
+    }
+
+    /**
+     * Reads a file named relative to the root, refusing paths that lead
+     * outside it.
+     */
+    private byte[] readImageFile(String name) throws IOException
+    {
+        // Checked before and after following links, so neither ".." nor a
+        // link can lead out of the root.
+        Path path = root.resolve(name).normalize();
+        if (!path.startsWith(root) || !path.toRealPath().startsWith(root))
+            throw new SecurityException("image is outside the root directory");
+        if (Files.size(path) > MAX_UPLOAD)
+            throw new IllegalArgumentException("image is too large");
+        return Files.readAllBytes(path);
+    }
+
+    private static byte[] readBody(InputStream body) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        int n;
+        while ((n = body.read(buffer)) > 0)
+        {
+            out.write(buffer, 0, n);
+            if (out.size() > MAX_UPLOAD)
+                throw new IllegalArgumentException("image is too large");
+        }
+        if (out.size() == 0)
+            throw new IllegalArgumentException("missing image");
+        return out.toByteArray();
+    }
+
+    private static void send(HttpExchange exchange, int status, String type,
+                             byte[] body) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static Map<String, String> parseQuery(String query)
+    {
+        Map<String, String> result = new HashMap<String, String>();
+        if (query == null)
+            return result;
+        for (String pair : query.split("&"))
+        {
+            int equals = pair.indexOf('=');
+            if (equals > 0)
+                result.put(URLDecoder.decode(pair.substring(0, equals),
+                                             StandardCharsets.UTF_8),
+                           URLDecoder.decode(pair.substring(equals + 1),
+                                             StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    private static String name(String step)
+    {
+        int colon = step.indexOf(':');
+        return colon < 0 ? step : step.substring(0, colon);
+    }
+
+    private static double number(String argument, double otherwise)
+    {
+        if (argument == null)
+            return otherwise;
+        try
+        {
+            return Double.parseDouble(argument);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("not a number: " + argument);
+        }
+    }
+
+    private static byte[] bytes(String text)
+    {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String hash(byte[] data)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest)
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Encoded results, least recently used first, within a byte limit.
+    private static class ResultCache
+    {
+        private final LinkedHashMap<String, byte[]> entries =
+            new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+        private final long limit;
+        private long bytes;
+
+        ResultCache(long limit)
+        {
+            this.limit = limit;
+        }
+
+        synchronized byte[] get(String key)
+        {
+            return entries.get(key);
+        }
+
+        synchronized void put(String key, byte[] value)
+        {
+            if (value.length > limit)
+                return;
+            byte[] old = entries.put(key, value);
+            if (old != null)
+                bytes -= old.length;
+            bytes += value.length;
+            Iterator<byte[]> eldest = entries.values().iterator();
+            while (bytes > limit)
+            {
+                bytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+}
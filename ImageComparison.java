@@ -0,0 +1,190 @@
+import java.awt.image.Raster;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+/**
+ * Numerical comparison of two images of the same size and number of bands,
+ * used by the comparison methods of EzImage.  Every band is compared,
+ * including alpha.
+ *
+ * The structural similarity index (SSIM) is computed over square windows
+ * whose means, variances and covariance are read from integral images, so
+ * the cost does not depend on the window size.  The covariance comes from
+ * the identity 2xy = (x+y)^2 - x^2 - y^2 and a table of the squared sums
+ * of the two bands.
+ *
+ * @author shreya-va
+ */
+class ImageComparison
+{
+    // Rows per task when checking whether images are identical.
+    private static final int STRIPE_ROWS = 64;
+
+    // Stabilizing constants of SSIM for 0-255 values.
+    private static final double C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double C2 = (0.03 * 255) * (0.03 * 255);
+
+    /**
+     * Returns the largest absolute difference between two samples.
+     */
+    static int maxAbsDifference(EzImage a, EzImage b)
+    {
+        check(a, b);
+        final int[][] x = a.getPixelsPlanar();
+        final int[][] y = b.getPixelsPlanar();
+        final int width = a.getWidth();
+        int result = 0;
+        for (int k = 0; k < x.length; k++)
+        {
+            final int[] p = x[k];
+            final int[] q = y[k];
+            result = Math.max(result,
+                IntStream.range(0, a.getHeight()).parallel().map(r -> {
+                    int max = 0;
+                    for (int i = r * width; i < (r + 1) * width; i++)
+                        max = Math.max(max, Math.abs(p[i] - q[i]));
+                    return max;
+                }).max().orElse(0));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the mean of the squared differences over all samples.
+     */
+    static double meanSquaredError(EzImage a, EzImage b)
+    {
+        check(a, b);
+        final int[][] x = a.getPixelsPlanar();
+        final int[][] y = b.getPixelsPlanar();
+        final int width = a.getWidth();
+        long total = 0;
+        for (int k = 0; k < x.length; k++)
+        {
+            final int[] p = x[k];
+            final int[] q = y[k];
+            total += IntStream.range(0, a.getHeight()).parallel().mapToLong(r -> {
+                long sum = 0;
+                for (int i = r * width; i < (r + 1) * width; i++)
+                {
+                    int d = p[i] - q[i];
+                    sum += d * d;
+                }
+                return sum;
+            }).sum();
+        }
+        return (double)total / ((long)x.length * width * a.getHeight());
+    }
+
+    /**
+     * Returns the peak signal-to-noise ratio in decibels, which is infinite
+     * for identical images.
+     */
+    static double psnr(EzImage a, EzImage b)
+    {
+        double mse = meanSquaredError(a, b);
+        if (mse == 0)
+            return Double.POSITIVE_INFINITY;
+        return 10 * Math.log10(255.0 * 255.0 / mse);
+    }
+
+    /**
+     * Returns the mean SSIM over every window of side 2*radius+1 that lies
+     * inside the image, averaged over the bands.  Images smaller than one
+     * window are treated as a single window.
+     */
+    static double ssim(EzImage a, EzImage b, int radius)
+    {
+        check(a, b);
+        if (radius < 0)
+            throw new IllegalArgumentException("radius must not be negative");
+        final int width = a.getWidth();
+        final int height = a.getHeight();
+        final int ww = Math.min(width, 2 * radius + 1);
+        final int wh = Math.min(height, 2 * radius + 1);
+        final int columns = width - ww + 1;
+        final int rows = height - wh + 1;
+        final double n = (double)ww * wh;
+
+        int[][] x = a.getPixelsPlanar();
+        int[][] y = b.getPixelsPlanar();
+        double total = 0;
+        for (int k = 0; k < x.length; k++)
+        {
+            int[] sums = new int[width * height];
+            for (int i = 0; i < sums.length; i++)
+                sums[i] = x[k][i] + y[k][i];
+            final IntegralImage ix = new IntegralImage(x[k], width, height, true);
+            final IntegralImage iy = new IntegralImage(y[k], width, height, true);
+            final IntegralImage is = new IntegralImage(sums, width, height,
+                                                       true, 510);
+            total += IntStream.range(0, rows).parallel().mapToDouble(r -> {
+                double sum = 0;
+                for (int c = 0; c < columns; c++)
+                {
+                    double sx = ix.sum(c, r, ww, wh);
+                    double sy = iy.sum(c, r, ww, wh);
+                    double sxx = ix.sumOfSquares(c, r, ww, wh);
+                    double syy = iy.sumOfSquares(c, r, ww, wh);
+                    double sxy = (is.sumOfSquares(c, r, ww, wh) - sxx - syy) / 2;
+                    double mx = sx / n;
+                    double my = sy / n;
+                    double vx = sxx / n - mx * mx;
+                    double vy = syy / n - my * my;
+                    double cov = sxy / n - mx * my;
+                    sum += (2 * mx * my + C1) * (2 * cov + C2)
+                         / ((mx * mx + my * my + C1) * (vx + vy + C2));
+                }
+                return sum;
+            }).sum() / ((double)rows * columns);
+        }
+        return total / x.length;
+    }
+
+    /**
+     * Returns true if every sample of the two images is equal.  Stripes of
+     * rows are compared in parallel and all of them stop as soon as any
+     * difference is found.  Images of different sizes or bands are simply
+     * not identical.
+     */
+    static boolean identical(EzImage a, EzImage b)
+    {
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight() ||
+            a.numColorBands() != b.numColorBands())
+            return false;
+
+        final Raster x = a.readRaster();
+        final Raster y = b.readRaster();
+        if (x == y)
+            return true;
+
+        final int width = a.getWidth();
+        final int height = a.getHeight();
+        final int bands = a.numColorBands();
+        final AtomicBoolean different = new AtomicBoolean();
+        int stripes = (height + STRIPE_ROWS - 1) / STRIPE_ROWS;
+        IntStream.range(0, stripes).parallel().forEach(s -> {
+            int[] p = new int[width * bands];
+            int[] q = new int[width * bands];
+            int end = Math.min(height, (s + 1) * STRIPE_ROWS);
+            for (int r = s * STRIPE_ROWS; r < end && !different.get(); r++)
+            {
+                x.getPixels(0, r, width, 1, p);
+                y.getPixels(0, r, width, 1, q);
+                if (!Arrays.equals(p, q))
+                    different.set(true);
+            }
+        });
+        return !different.get();
+    }
+
+    private static void check(EzImage a, EzImage b)
+    {
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight())
+            throw new IllegalArgumentException("images are different sizes");
+        if (a.numColorBands() != b.numColorBands())
+            throw new IllegalArgumentException(
+                    "images have different numbers of bands");
+    }
+}
@@ -0,0 +1,103 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event for one image operation: reading or saving a file, getting
+ * or setting pixels, or a PhotoLab filter.  The same call also records
+ * the operation in Metrics when that is enabled.
+ *
+ * An operation calls start() before it starts and one of the finish
+ * methods when it is done.  When no flight recording is running, JFR
+ * leaves the event methods empty and the JIT removes the event object, so
+ * the only remaining cost is the check of Metrics.isEnabled().
+ *
+ * @author shreya-va
+ */
+@Name("ezimage.ImageOperation")
+@Label("Image Operation")
+@Category("EzImage")
+@Description("An image file read or write, pixel access or filter")
+class ImageEvent extends Event
+{
+    @Label("Operation")
+    String operation;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Bands")
+    int bands;
+
+    @Label("Bytes Touched")
+    @DataAmount
+    long bytes;
+
+    // When the operation started, for Metrics; 0 if Metrics is off.
+    private transient long started;
+
+    /**
+     * Returns a new event for an operation that starts now.
+     */
+    static ImageEvent start()
+    {
+        ImageEvent event = new ImageEvent();
+        event.begin();
+        if (Metrics.isEnabled())
+            event.started = System.nanoTime();
+        return event;
+    }
+
+    /**
+     * Ends the operation on an image of the given size, which read and
+     * wrote the given number of bytes.
+     */
+    void finish(String operation, int width, int height, int bands,
+                long bytes)
+    {
+        if (started != 0)
+            Metrics.record(operation, System.nanoTime() - started, bytes);
+        end();
+        if (shouldCommit())
+        {
+            this.operation = operation;
+            this.width = width;
+            this.height = height;
+            this.bands = bands;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+
+    /**
+     * Ends the operation that read and wrote every sample of the image
+     * once, and returns the image.
+     */
+    EzImage finish(String operation, EzImage image)
+    {
+        int bands = image.numColorBands();
+        finish(operation, image.getWidth(), image.getHeight(), bands,
+               (long)image.getWidth() * image.getHeight() * bands);
+        return image;
+    }
+
+    /**
+     * Ends a filter that read the input and made the result, and returns
+     * the result.  The bytes counted are the samples of both images.
+     */
+    EzImage finish(String operation, EzImage input, EzImage result)
+    {
+        int bands = input.numColorBands();
+        long size = (long)input.getWidth() * input.getHeight() * bands +
+                    (long)result.getWidth() * result.getHeight() *
+                    result.numColorBands();
+        finish(operation, input.getWidth(), input.getHeight(), bands, size);
+        return result;
+    }
+}
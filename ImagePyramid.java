@@ -0,0 +1,271 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * An ImagePyramid holds successively halved copies of an EzImage.  Level 0
+ * is the image itself and level k is 2^k times smaller on each side, each
+ * pixel being the rounded mean of a 2x2 block of the level above.  An odd
+ * last row or column is averaged with itself.
+ *
+ * Levels are made only when first asked for.  All of the missing levels
+ * down to the one requested are built in a single pass over the nearest
+ * finer level: as soon as two rows of one level exist, the row below them
+ * is made, so every level is written while its source rows are still in
+ * the cache.
+ *
+ * Built levels of every pyramid share one cache with a limit on the total
+ * number of bytes.  When the limit is passed the least recently used
+ * levels are dropped, and are rebuilt if they are asked for again.
+ *
+ * @author shreya-va
+ */
+class ImagePyramid
+{
+    private static final long DEFAULT_CACHE_LIMIT = 64L << 20;
+
+    // Built levels of all pyramids, least recently used first.
+    private static final LinkedHashMap<Level, EzImage> CACHE =
+        new LinkedHashMap<Level, EzImage>(16, 0.75f, true);
+    private static long cacheLimit = DEFAULT_CACHE_LIMIT;
+    private static long cacheBytes;
+
+    private final int levelCount;
+
+    /**
+     * Constructs an empty pyramid for an image of the given size.  The
+     * pyramid does not hold on to the image, so that cached levels do not
+     * keep a large image alive; it is passed in when a level is built.
+     *
+     * @param  width   the width (in pixels) of level 0
+     * @param  height  the height (in pixels) of level 0
+     */
+    ImagePyramid(int width, int height)
+    {
+        int count = 1;
+        for (int w = width, h = height;
+             w > 1 || h > 1; w = (w + 1) / 2, h = (h + 1) / 2)
+            count++;
+        this.levelCount = count;
+    }
+
+    /**
+     * Returns the number of levels, the last being a single pixel.
+     *
+     * @return   the number of levels
+     */
+    int getLevelCount()
+    {
+        return levelCount;
+    }
+
+    /**
+     * Returns the finest level that is no smaller than scale times the
+     * image, so that drawing it scaled down to that size loses nothing.
+     *
+     * @param  scale  the wanted size as a fraction of the image, above 0
+     * @return        the level number
+     */
+    int levelForScale(double scale)
+    {
+        if (!(scale > 0))
+            throw new IllegalArgumentException("scale must be positive");
+        int level = 0;
+        while (level + 1 < levelCount && scale <= 1.0 / (1L << (level + 1)))
+            level++;
+        return level;
+    }
+
+    /**
+     * Returns the image at the level, building it and any missing levels
+     * above it if needed.  The result is shared with the cache and must not
+     * be changed.  The source must not have changed since the pyramid was
+     * made; call clear() and make a new pyramid instead.
+     *
+     * @param  source  the image at level 0
+     * @param  level   the level number, from 0 to getLevelCount()-1
+     * @return         the image at that level
+     */
+    EzImage getLevel(EzImage source, int level)
+    {
+        if (level < 0 || level >= levelCount)
+            throw new IllegalArgumentException("level out of range");
+        if (level == 0)
+            return source;
+
+        // Start from the nearest finer level that is still cached.
+        int from = level;
+        EzImage start = null;
+        synchronized (CACHE)
+        {
+            EzImage hit = CACHE.get(new Level(this, level));
+            if (hit != null)
+                return hit;
+            while (--from > 0 && (start = CACHE.get(new Level(this, from))) == null)
+                ;
+        }
+        if (from == 0)
+            start = source;
+
+        EzImage[] built = build(start, level - from);
+        synchronized (CACHE)
+        {
+            for (int k = 0; k < built.length; k++)
+            {
+                Level key = new Level(this, from + 1 + k);
+                EzImage old = CACHE.put(key, built[k]);
+                if (old != null)
+                    cacheBytes -= bytes(old);
+                cacheBytes += bytes(built[k]);
+            }
+            // Look the requested level up last so it is the most recent.
+            CACHE.get(new Level(this, level));
+            evict();
+        }
+        return built[built.length - 1];
+    }
+
+    /**
+     * Drops every cached level of this pyramid.
+     */
+    void clear()
+    {
+        synchronized (CACHE)
+        {
+            Iterator<Map.Entry<Level, EzImage>> entries =
+                CACHE.entrySet().iterator();
+            while (entries.hasNext())
+            {
+                Map.Entry<Level, EzImage> entry = entries.next();
+                if (entry.getKey().pyramid == this)
+                {
+                    cacheBytes -= bytes(entry.getValue());
+                    entries.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the largest number of bytes the cached levels of all pyramids
+     * may use together, dropping levels at once if they use more.
+     *
+     * @param  bytes  the limit in bytes
+     */
+    static void setCacheLimit(long bytes)
+    {
+        if (bytes < 0)
+            throw new IllegalArgumentException("limit must not be negative");
+        synchronized (CACHE)
+        {
+            cacheLimit = bytes;
+            evict();
+        }
+    }
+
+    private static void evict()
+    {
+        Iterator<EzImage> levels = CACHE.values().iterator();
+        while (cacheBytes > cacheLimit && levels.hasNext())
+        {
+            cacheBytes -= bytes(levels.next());
+            levels.remove();
+        }
+    }
+
+    // Bytes used by the pixels of a level, as stored by fromPlanes.
+    private static long bytes(EzImage image)
+    {
+        long pixels = (long)image.getWidth() * image.getHeight();
+        return image.numColorBands() == 1 ? pixels : 4 * pixels;
+    }
+
+    /**
+     * Returns the next count levels below the image, each built from the
+     * one above it row by row.  Bands are done in parallel.
+     */
+    private static EzImage[] build(EzImage image, final int count)
+    {
+        final int[] widths = new int[count + 1];
+        final int[] heights = new int[count + 1];
+        widths[0] = image.getWidth();
+        heights[0] = image.getHeight();
+        for (int k = 1; k <= count; k++)
+        {
+            widths[k] = (widths[k - 1] + 1) / 2;
+            heights[k] = (heights[k - 1] + 1) / 2;
+        }
+
+        final int[][] planes = image.getPixelsPlanar();
+        final int[][][] levels = new int[count + 1][planes.length][];
+        IntStream.range(0, planes.length).parallel().forEach(b -> {
+            levels[0][b] = planes[b];
+            for (int k = 1; k <= count; k++)
+                levels[k][b] = new int[widths[k] * heights[k]];
+            for (int y = 0; y < heights[1]; y++)
+            {
+                // Row y of level 1, then as many rows below it as it
+                // completes.
+                int k = 1;
+                int row = y;
+                while (true)
+                {
+                    halveRow(levels[k - 1][b], widths[k - 1], heights[k - 1],
+                             levels[k][b], widths[k], row);
+                    boolean pairDone = row % 2 == 1 || row == heights[k] - 1;
+                    if (k == count || !pairDone)
+                        break;
+                    k++;
+                    row /= 2;
+                }
+            }
+        });
+
+        EzImage[] result = new EzImage[count];
+        for (int k = 1; k <= count; k++)
+            result[k - 1] = EzImage.fromPlanes(levels[k], heights[k], widths[k]);
+        return result;
+    }
+
+    private static void halveRow(int[] in, int width, int height, int[] out,
+                                 int outWidth, int row)
+    {
+        int top = 2 * row * width;
+        int bottom = Math.min(2 * row + 1, height - 1) * width;
+        int to = row * outWidth;
+        for (int x = 0; x < outWidth; x++)
+        {
+            int left = 2 * x;
+            int right = Math.min(left + 1, width - 1);
+            out[to + x] = (in[top + left] + in[top + right]
+                         + in[bottom + left] + in[bottom + right] + 2) >> 2;
+        }
+    }
+
+    // Cache key: a level of one pyramid.
+    private static class Level
+    {
+        final ImagePyramid pyramid;
+        final int index;
+
+        Level(ImagePyramid pyramid, int index)
+        {
+            this.pyramid = pyramid;
+            this.index = index;
+        }
+
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Level))
+                return false;
+            Level level = (Level)other;
+            return level.pyramid == pyramid && level.index == index;
+        }
+
+        public int hashCode()
+        {
+            return System.identityHashCode(pyramid) * 31 + index;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+import java.util.stream.IntStream;
+
+/**
+ * An IntegralImage (summed-area table) of one band of an image.  Entry
+ * (x, y) of the table holds the sum of every pixel above and to the left of
+ * (x, y), so the sum, mean or variance of any rectangle can be read with
+ * four lookups no matter how big the rectangle is.  Box blurs of any
+ * radius, local thresholds and region statistics therefore cost the same
+ * per pixel.
+ *
+ * The table has (width+1)*(height+1) entries.  It is stored as int[] when
+ * the total of the band is guaranteed to fit (up to 8,421,504 pixels of
+ * 0-255 values) and as long[] otherwise, so one band costs about 4 MB per
+ * megapixel for images up to 8 megapixels and about 8 MB per megapixel
+ * above that.  The optional table of squared values, needed for variance,
+ * is always long[] and adds another 8 MB per megapixel.
+ *
+ * @author shreya-va
+ */
+public class IntegralImage
+{
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final int[] ints;
+    private final long[] longs;
+    private final long[] squares;
+
+    /**
+     * Builds the table for one band of pixels.
+     *
+     * @param  pixels       an array of [height * width] pixels in row-major
+     *                      format, in the range 0-255
+     * @param  width        the width (in pixels) of the band
+     * @param  height       the height (in pixels) of the band
+     * @param  withSquares  true to also build the table of squared values,
+     *                      which variance needs
+     * @throws              IllegalArgumentException if the array length is
+     *                      not width * height
+     */
+    public IntegralImage(final int[] pixels, final int width, final int height,
+                         boolean withSquares)
+    {
+        this(pixels, width, height, withSquares, 255);
+    }
+
+    /**
+     * Builds the table for non-negative values up to maxValue, such as the
+     * sum of two bands.
+     */
+    IntegralImage(final int[] pixels, final int width, final int height,
+                  boolean withSquares, int maxValue)
+    {
+        if (pixels == null || pixels.length != width * height)
+            throw new IllegalArgumentException(
+                    "pixel array doesn't match the image size");
+
+        this.width = width;
+        this.height = height;
+        this.stride = width + 1;
+        int entries = (width + 1) * (height + 1);
+        if ((long)width * height * maxValue <= Integer.MAX_VALUE)
+        {
+            ints = new int[entries];
+            longs = null;
+        }
+        else
+        {
+            ints = null;
+            longs = new long[entries];
+        }
+        squares = withSquares ? new long[entries] : null;
+
+        // Running sums along each row, rows in parallel...
+        IntStream.range(0, height).parallel().forEach(y -> {
+            int from = y * width;
+            int to = (y + 1) * stride + 1;
+            if (ints != null)
+            {
+                int sum = 0;
+                for (int x = 0; x < width; x++)
+                    ints[to + x] = sum += pixels[from + x];
+            }
+            else
+            {
+                long sum = 0;
+                for (int x = 0; x < width; x++)
+                    longs[to + x] = sum += pixels[from + x];
+            }
+            if (squares != null)
+            {
+                long sum = 0;
+                for (int x = 0; x < width; x++)
+                {
+                    long p = pixels[from + x];
+                    squares[to + x] = sum += p * p;
+                }
+            }
+        });
+
+        // ...then down each column, in parallel blocks of columns.
+        final int block = 256;
+        IntStream.range(0, (stride + block - 1) / block).parallel().forEach(b -> {
+            int x0 = b * block;
+            int x1 = Math.min(stride, x0 + block);
+            for (int y = 2; y <= height; y++)
+            {
+                int row = y * stride;
+                int above = row - stride;
+                for (int x = x0; x < x1; x++)
+                {
+                    if (ints != null)
+                        ints[row + x] += ints[above + x];
+                    else
+                        longs[row + x] += longs[above + x];
+                    if (squares != null)
+                        squares[row + x] += squares[above + x];
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the width of the band the table was built from.
+     * @return   the width in pixels
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the height of the band the table was built from.
+     * @return   the height in pixels
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Returns the number of bytes used by the tables.
+     * @return   the memory footprint of the tables
+     */
+    public long memoryBytes()
+    {
+        long entries = (long)stride * (height + 1);
+        return entries * (ints != null ? 4 : 8) + (squares != null ? entries * 8 : 0);
+    }
+
+    private long at(int i)
+    {
+        return ints != null ? ints[i] : longs[i];
+    }
+
+    private void checkRegion(int x, int y, int w, int h)
+    {
+        if (x < 0 || y < 0 || w <= 0 || h <= 0 ||
+            x + w > width || y + h > height)
+            throw new IllegalArgumentException("region lies outside the image");
+    }
+
+    /**
+     * Returns the sum of the pixels in the rectangle.
+     *
+     * @param  x  the column of the left edge
+     * @param  y  the row of the top edge
+     * @param  w  the width of the rectangle
+     * @param  h  the height of the rectangle
+     * @return    the sum of the pixels
+     * @throws    IllegalArgumentException if the rectangle is empty or
+     *            extends outside the image
+     */
+    public long sum(int x, int y, int w, int h)
+    {
+        checkRegion(x, y, w, h);
+        int top = y * stride;
+        int bottom = (y + h) * stride;
+        return at(bottom + x + w) - at(top + x + w) - at(bottom + x) + at(top + x);
+    }
+
+    /**
+     * Returns the sum of the squares of the pixels in the rectangle.
+     *
+     * @param  x  the column of the left edge
+     * @param  y  the row of the top edge
+     * @param  w  the width of the rectangle
+     * @param  h  the height of the rectangle
+     * @return    the sum of the squared pixels
+     * @throws    IllegalStateException if the table was built without
+     *            squares, IllegalArgumentException if the rectangle is empty
+     *            or extends outside the image
+     */
+    public long sumOfSquares(int x, int y, int w, int h)
+    {
+        if (squares == null)
+            throw new IllegalStateException("built without squares");
+        checkRegion(x, y, w, h);
+        int top = y * stride;
+        int bottom = (y + h) * stride;
+        return squares[bottom + x + w] - squares[top + x + w]
+             - squares[bottom + x] + squares[top + x];
+    }
+
+    /**
+     * Returns the mean of the pixels in the rectangle.
+     *
+     * @param  x  the column of the left edge
+     * @param  y  the row of the top edge
+     * @param  w  the width of the rectangle
+     * @param  h  the height of the rectangle
+     * @return    the mean pixel value
+     */
+    public double mean(int x, int y, int w, int h)
+    {
+        return sum(x, y, w, h) / (double)((long)w * h);
+    }
+
+    /**
+     * Returns the (population) variance of the pixels in the rectangle.
+     *
+     * @param  x  the column of the left edge
+     * @param  y  the row of the top edge
+     * @param  w  the width of the rectangle
+     * @param  h  the height of the rectangle
+     * @return    the variance of the pixel values
+     * @throws    IllegalStateException if the table was built without
+     *            squares
+     */
+    public double variance(int x, int y, int w, int h)
+    {
+        double n = (double)w * h;
+        double mean = sum(x, y, w, h) / n;
+        return Math.max(0, sumOfSquares(x, y, w, h) / n - mean * mean);
+    }
+
+    /**
+     * Returns the rounded mean of the square of side 2*radius+1 around
+     * every pixel.  Near the edges only the part of the square inside the
+     * image is averaged.
+     *
+     * @param  radius  the number of pixels on each side of the centre
+     * @return         an array of [height * width] means
+     */
+    public int[] boxMeans(final int radius)
+    {
+        if (radius < 0)
+            throw new IllegalArgumentException("radius must not be negative");
+        final int[] result = new int[width * height];
+        IntStream.range(0, height).parallel().forEach(y -> {
+            int y0 = Math.max(0, y - radius);
+            int y1 = Math.min(height, y + radius + 1);
+            for (int x = 0; x < width; x++)
+            {
+                int x0 = Math.max(0, x - radius);
+                int x1 = Math.min(width, x + radius + 1);
+                long n = (long)(x1 - x0) * (y1 - y0);
+                long s = sum(x0, y0, x1 - x0, y1 - y0);
+                result[y * width + x] = (int)((2 * s + n) / (2 * n));
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,211 @@
+import java.util.Arrays;
+
+/**
+ * The LongSumMap class accumulates a running total and a count for each
+ * long key.  It is an open-addressing hash table with linear probing that
+ * stores keys, sums and counts in parallel primitive arrays, so adding a
+ * value never boxes the key or the amount the way a
+ * HashMap&lt;Integer,Integer&gt; would.
+ *
+ * @author shreya-va
+ */
+public class LongSumMap
+{
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private long[] sums;
+    private int[] counts;
+    private boolean[] used;
+    private int size;
+    private int mask;
+
+    /**
+     * Constructs an empty map.
+     */
+    public LongSumMap()
+    {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty map sized to hold the expected number of keys
+     * without growing.
+     *
+     * @param  expectedKeys  the number of distinct keys expected
+     */
+    public LongSumMap(int expectedKeys)
+    {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedKeys * 2)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new long[capacity];
+        sums = new long[capacity];
+        counts = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Spreads the bits of the key so that sequential codes (ids, dates)
+     * do not cluster in neighbouring slots.
+     */
+    private static int hash(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    private int slot(long key)
+    {
+        int i = hash(key) & mask;
+        while (used[i] && keys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * Adds an amount to the total for the key and increments its count.
+     *
+     * @param  key     the dimension code
+     * @param  amount  the value to add
+     */
+    public void add(long key, long amount)
+    {
+        add(key, amount, 1);
+    }
+
+    private void add(long key, long amount, int count)
+    {
+        int i = slot(key);
+        if (!used[i])
+        {
+            used[i] = true;
+            keys[i] = key;
+            if (++size * 4 > keys.length * 3)
+            {
+                sums[i] = amount;
+                counts[i] = count;
+                grow();
+                return;
+            }
+        }
+        sums[i] += amount;
+        counts[i] += count;
+    }
+
+    private void grow()
+    {
+        rehash(keys.length * 2);
+    }
+
+    private void rehash(int capacity)
+    {
+        long[] oldKeys = keys;
+        long[] oldSums = sums;
+        int[] oldCounts = counts;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldUsed[i])
+            {
+                int j = slot(oldKeys[i]);
+                used[j] = true;
+                keys[j] = oldKeys[i];
+                sums[j] = oldSums[i];
+                counts[j] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Adds every total and count of the other map into this one.
+     *
+     * @param  other  the map to merge in
+     * @return        this map
+     */
+    public LongSumMap merge(LongSumMap other)
+    {
+        // Grow up front: inserting another table's slots in order into a
+        // smaller table piles every key into one long probe run.
+        int needed = size + other.size;
+        if (needed * 4 > keys.length * 3)
+        {
+            int capacity = keys.length;
+            while (needed * 4 > capacity * 3)
+                capacity <<= 1;
+            rehash(capacity);
+        }
+        for (int i = 0; i < other.keys.length; i++)
+            if (other.used[i])
+                add(other.keys[i], other.sums[i], other.counts[i]);
+        return this;
+    }
+
+    /**
+     * Returns the total for the key, or 0 if the key was never added.
+     *
+     * @param  key  the dimension code
+     * @return      the accumulated total
+     */
+    public long getSum(long key)
+    {
+        int i = slot(key);
+        return used[i] ? sums[i] : 0;
+    }
+
+    /**
+     * Returns how many values were added for the key.
+     *
+     * @param  key  the dimension code
+     * @return      the number of values added
+     */
+    public int getCount(long key)
+    {
+        int i = slot(key);
+        return used[i] ? counts[i] : 0;
+    }
+
+    /**
+     * Returns true if a value has been added for the key.
+     *
+     * @param  key  the dimension code
+     * @return      true if the key is present
+     */
+    public boolean containsKey(long key)
+    {
+        return used[slot(key)];
+    }
+
+    /**
+     * Returns the number of distinct keys.
+     *
+     * @return   the number of keys in the map
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns all keys in increasing order.
+     *
+     * @return   a new array of the keys
+     */
+    public long[] sortedKeys()
+    {
+        long[] result = new long[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++)
+            if (used[i])
+                result[n++] = keys[i];
+        Arrays.sort(result);
+        return result;
+    }
+}
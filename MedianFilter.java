@@ -0,0 +1,203 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The MedianFilter class replaces every pixel by the median (or any other
+ * percentile) of the square of side 2*radius+1 around it, for bands with
+ * values 0-255.  Pixels outside the image are taken to be copies of the
+ * nearest edge pixel.
+ *
+ * It uses the constant-time method of Perreault and H&eacute;bert: one
+ * histogram per column covering the rows of the window, and a window
+ * histogram that slides along the row by adding the column entering on the
+ * right and removing the one leaving on the left.  Histograms have 16
+ * coarse bins of 16 fine bins each; only the coarse bins are slid for every
+ * pixel, and the fine bins of the one coarse bin holding the median are
+ * brought up to date when needed.  The cost per pixel therefore does not
+ * grow with the radius.  Stripes of rows run in parallel, each with its
+ * own histograms.
+ *
+ * @author shreya-va
+ */
+public class MedianFilter
+{
+    // Rows per stripe; each stripe is one parallel task.
+    private static final int STRIPE_ROWS = 128;
+
+    /**
+     * Returns a new image made by median filtering every band.
+     *
+     * @param  image   the image to filter
+     * @param  radius  the number of pixels on each side of the centre
+     * @return         the filtered image
+     */
+    public static EzImage median(EzImage image, int radius)
+    {
+        return percentile(image, radius, 0.5);
+    }
+
+    /**
+     * Returns a new image made by percentile filtering every band.  A
+     * percentile of 0 gives the minimum of each window (erosion), 0.5 the
+     * median and 1 the maximum (dilation).
+     *
+     * @param  image       the image to filter
+     * @param  radius      the number of pixels on each side of the centre
+     * @param  percentile  the rank to pick, from 0 to 1
+     * @return             the filtered image
+     */
+    public static EzImage percentile(EzImage image, int radius,
+                                     double percentile)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[][] planes = image.getPixelsPlanar();
+        for (int k = 0; k < planes.length; k++)
+            planes[k] = filter(planes[k], width, height, radius, percentile);
+        return EzImage.fromPlanes(planes, height, width);
+    }
+
+    /**
+     * Returns the percentile of the window around every pixel of one band.
+     *
+     * @param  pixels      an array of [height * width] pixels in row-major
+     *                     format, in the range 0-255
+     * @param  width       the width (in pixels) of the band
+     * @param  height      the height (in pixels) of the band
+     * @param  radius      the number of pixels on each side of the centre
+     * @param  percentile  the rank to pick, from 0 to 1
+     * @return             a new array of [height * width] results
+     * @throws             IllegalArgumentException if the array length is
+     *                     not width * height, the radius is negative or the
+     *                     percentile is outside 0-1
+     */
+    public static int[] filter(final int[] pixels, final int width,
+                               final int height, final int radius,
+                               double percentile)
+    {
+        if (pixels == null || pixels.length != width * height)
+            throw new IllegalArgumentException(
+                    "pixel array doesn't match the image size");
+        if (radius < 0)
+            throw new IllegalArgumentException("radius must not be negative");
+        if (percentile < 0 || percentile > 1)
+            throw new IllegalArgumentException("percentile must be from 0 to 1");
+
+        int size = 2 * radius + 1;
+        final int rank = (int)Math.floor(percentile * ((long)size * size - 1));
+        final int[] result = new int[width * height];
+        int stripes = (height + STRIPE_ROWS - 1) / STRIPE_ROWS;
+        IntStream.range(0, stripes).parallel().forEach(s -> {
+            int y0 = s * STRIPE_ROWS;
+            int y1 = Math.min(height, y0 + STRIPE_ROWS);
+            stripe(pixels, result, width, height, radius, rank, y0, y1);
+        });
+        return result;
+    }
+
+    private static int edge(int i, int size)
+    {
+        return i < 0 ? 0 : (i >= size ? size - 1 : i);
+    }
+
+    private static void stripe(int[] in, int[] out, int width, int height,
+                               int r, int rank, int y0, int y1)
+    {
+        // Column histograms over rows y-r..y+r: 256 fine and 16 coarse bins
+        // per column.
+        int[] columnFine = new int[width * 256];
+        int[] columnCoarse = new int[width * 16];
+        for (int t = y0 - r; t <= y0 + r; t++)
+        {
+            int row = edge(t, height) * width;
+            for (int x = 0; x < width; x++)
+            {
+                int v = in[row + x];
+                columnFine[x * 256 + v]++;
+                columnCoarse[x * 16 + (v >> 4)]++;
+            }
+        }
+
+        int[] coarse = new int[16];
+        int[] fine = new int[256];
+        int[] updatedAt = new int[16];
+        int window = 2 * r + 1;
+
+        for (int y = y0; y < y1; y++)
+        {
+            if (y > y0)
+            {
+                int remove = edge(y - r - 1, height) * width;
+                int add = edge(y + r, height) * width;
+                for (int x = 0; x < width; x++)
+                {
+                    int v = in[remove + x];
+                    columnFine[x * 256 + v]--;
+                    columnCoarse[x * 16 + (v >> 4)]--;
+                    v = in[add + x];
+                    columnFine[x * 256 + v]++;
+                    columnCoarse[x * 16 + (v >> 4)]++;
+                }
+            }
+
+            // Window histogram for x = 0; fine bins are filled on demand.
+            Arrays.fill(coarse, 0);
+            for (int j = -r; j <= r; j++)
+            {
+                int c = edge(j, width) * 16;
+                for (int b = 0; b < 16; b++)
+                    coarse[b] += columnCoarse[c + b];
+            }
+            // Every coarse bin starts stale.
+            Arrays.fill(updatedAt, -window - 1);
+
+            for (int x = 0; x < width; x++)
+            {
+                if (x > 0)
+                {
+                    int add = edge(x + r, width) * 16;
+                    int remove = edge(x - r - 1, width) * 16;
+                    for (int b = 0; b < 16; b++)
+                        coarse[b] += columnCoarse[add + b] - columnCoarse[remove + b];
+                }
+
+                int b = 0;
+                int seen = 0;
+                while (seen + coarse[b] <= rank)
+                    seen += coarse[b++];
+
+                // Bring the fine bins of coarse bin b up to column x.
+                int from = b * 16;
+                int last = updatedAt[b];
+                if (x - last > window)
+                {
+                    for (int v = from; v < from + 16; v++)
+                        fine[v] = 0;
+                    for (int j = x - r; j <= x + r; j++)
+                    {
+                        int c = edge(j, width) * 256 + from;
+                        for (int v = 0; v < 16; v++)
+                            fine[from + v] += columnFine[c + v];
+                    }
+                }
+                else
+                {
+                    for (int t = last + 1; t <= x; t++)
+                    {
+                        int add = edge(t + r, width) * 256 + from;
+                        int remove = edge(t - r - 1, width) * 256 + from;
+                        for (int v = 0; v < 16; v++)
+                            fine[from + v] += columnFine[add + v]
+                                            - columnFine[remove + v];
+                    }
+                }
+                updatedAt[b] = x;
+
+                int v = from;
+                while (seen + fine[v] <= rank)
+                    seen += fine[v++];
+                out[y * width + x] = v;
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics is an in-process registry of counters and latency histograms
+ * for the image and sorting operations of the lab: EzImage reading and
+ * saving, the pixel get and set methods, the PhotoLab filters and the
+ * Sorting algorithms.  dump() prints them as a text table.
+ *
+ * Recording is off unless Java is run with -Dezimage.metrics=true or
+ * setEnabled(true) is called.  While it is off, an instrumented operation
+ * costs one read of a volatile flag.  The same operations also emit the
+ * JFR events ImageEvent and SortEvent, which a flight recording picks up
+ * whether or not this registry is enabled.
+ *
+ * Latencies go into histograms with one bucket per power of two
+ * nanoseconds, so the percentiles in the dump are upper bounds within a
+ * factor of two.  Everything is updated with adders and atomic arrays,
+ * so many threads can record at once without locking.
+ *
+ * @author shreya-va
+ */
+public class Metrics
+{
+    private static final int BUCKETS = 64;
+
+    private static volatile boolean enabled =
+        Boolean.getBoolean("ezimage.metrics");
+
+    private static final Map<String, LongAdder> counters =
+        new ConcurrentHashMap<String, LongAdder>();
+    private static final Map<String, Timer> timers =
+        new ConcurrentHashMap<String, Timer>();
+
+    private Metrics()
+    {
+    }
+
+    /**
+     * Turns recording on or off.  Turning it off keeps what was recorded.
+     *
+     * @param  on  true to record
+     */
+    public static void setEnabled(boolean on)
+    {
+        enabled = on;
+    }
+
+    /**
+     * Returns true if recording is on.
+     *
+     * @return   true if operations are being recorded
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Adds one to the named counter, if recording is on.
+     *
+     * @param  name  the counter
+     */
+    public static void increment(String name)
+    {
+        if (enabled)
+            counters.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Records one run of the named operation, if recording is on.
+     *
+     * @param  name   the operation, such as "EzImage.read"
+     * @param  nanos  how long it took
+     * @param  bytes  how many bytes of pixels or keys it read and wrote
+     */
+    public static void record(String name, long nanos, long bytes)
+    {
+        if (enabled)
+            timers.computeIfAbsent(name, k -> new Timer()).add(nanos, bytes);
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public static void reset()
+    {
+        counters.clear();
+        timers.clear();
+    }
+
+    /**
+     * Returns every counter and operation recorded so far as a text table,
+     * sorted by name.  Times are in microseconds.
+     *
+     * @return   the table
+     */
+    public static String dump()
+    {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-32s %10s %12s %10s %10s %10s %10s %12s%n",
+                "Operation", "Count", "Total (ms)", "Mean", "p50", "p99",
+                "Max", "MB"));
+        for (Map.Entry<String, Timer> entry :
+                 new TreeMap<String, Timer>(timers).entrySet())
+        {
+            Timer t = entry.getValue();
+            long count = t.count.sum();
+            if (count == 0)
+                continue;
+            out.append(String.format(
+                "%-32s %10d %12.1f %10.1f %10.1f %10.1f %10.1f %12.1f%n",
+                entry.getKey(), count, t.nanos.sum() / 1e6,
+                t.nanos.sum() / 1e3 / count, t.percentile(0.5) / 1e3,
+                t.percentile(0.99) / 1e3, t.max.get() / 1e3,
+                t.bytes.sum() / 1048576.0));
+        }
+        if (!counters.isEmpty())
+        {
+            out.append(String.format("%n%-32s %10s%n", "Counter", "Count"));
+            for (Map.Entry<String, LongAdder> entry :
+                     new TreeMap<String, LongAdder>(counters).entrySet())
+                out.append(String.format("%-32s %10d%n", entry.getKey(),
+                                         entry.getValue().sum()));
+        }
+        return out.toString();
+    }
+
+    // The statistics of one operation.
+    private static class Timer
+    {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        // buckets[i] counts times from 2^(i-1) up to 2^i - 1 nanoseconds
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void add(long time, long size)
+        {
+            time = Math.max(0, time);
+            count.increment();
+            nanos.add(time);
+            bytes.add(size);
+            max.accumulate(time);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(time));
+        }
+
+        /**
+         * Returns the upper end of the bucket holding the given fraction of
+         * the times, in nanoseconds.
+         */
+        double percentile(double fraction)
+        {
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++)
+                total += counts[i] = buckets.get(i);
+            long rank = (long)Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0)
+                    return Math.min(max.get(), i == 0 ? 0 : (1L << i) - 1);
+            }
+            return max.get();
+        }
+    }
+}
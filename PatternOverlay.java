@@ -0,0 +1,329 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * A PatternOverlay paints stripes, grids, checkerboards and dots over an
+ * image.  Every pattern is made of two sets of evenly spaced lines, one of
+ * rows and one of columns, each given by a period, a thickness and an
+ * offset: row r belongs to the set when (r - offset) mod period is less
+ * than the thickness.  The pattern covers the pixels in both sets (AND),
+ * in either (OR) or in exactly one (XOR):
+ * <ul>
+ * <li>vertical stripes are every row AND some columns;</li>
+ * <li>a grid is some rows OR some columns;</li>
+ * <li>a checkerboard is some rows XOR some columns;</li>
+ * <li>dots are some rows AND some columns.</li>
+ * </ul>
+ * Pixels are visited by stride, jumping from one line to the next, so the
+ * cost is proportional to the pixels painted and there is no test per
+ * pixel.
+ *
+ * Each pattern writes one colour, or a random colour for each stripe or
+ * cell, into the channels selected by a mask.  Random colours come from a
+ * SplittableRandom seeded once for the overlay: each pattern takes its own
+ * seed from it, and each stripe or cell derives its colour from that seed
+ * and its position alone.  The output therefore depends only on the seed,
+ * not on how the rows are split between threads.  Patterns are painted in
+ * the order they were added, rows in parallel.
+ *
+ * @author shreya-va
+ */
+public class PatternOverlay
+{
+    // How the row and column sets combine.
+    public static final int AND = -8001;
+    public static final int OR = -8002;
+    public static final int XOR = -8003;
+
+    // Colour meaning "a different random colour for every stripe or cell".
+    public static final int RANDOM = -1;
+
+    // Mask selecting all three channels of a packed 0xRRGGBB colour.
+    public static final int ALL_CHANNELS = 0xFFFFFF;
+
+    // Rows per parallel task.
+    private static final int STRIPE_ROWS = 64;
+
+    // Spreads stripe and cell numbers over the seeds of their generators.
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    // Stands for the missing row or column number of a whole line.
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final SplittableRandom random;
+    private final List<Layer> layers = new ArrayList<Layer>();
+
+    /**
+     * Constructs an empty overlay whose random colours are drawn from the
+     * given seed.
+     *
+     * @param  seed  the seed; the same seed gives the same colours
+     */
+    public PatternOverlay(long seed)
+    {
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Returns the next random colour, packed as 0xRRGGBB, from the
+     * overlay's generator.
+     *
+     * @return   a colour
+     */
+    public int nextColour()
+    {
+        return random.nextInt(1 << 24);
+    }
+
+    /**
+     * Adds vertical stripes: columns offset, offset+period, ... and the
+     * thickness-1 columns after each.
+     *
+     * @param  period     the distance from one stripe to the next
+     * @param  thickness  the width of each stripe, from 1 to period
+     * @param  offset     the first column of a stripe
+     * @param  colour     a colour packed as 0xRRGGBB, or RANDOM
+     * @return            this overlay
+     */
+    public PatternOverlay columns(int period, int thickness, int offset,
+                                  int colour)
+    {
+        return add(1, 1, 0, period, thickness, offset, AND, colour,
+                   ALL_CHANNELS);
+    }
+
+    /**
+     * Adds horizontal stripes: rows offset, offset+period, ... and the
+     * thickness-1 rows after each.
+     *
+     * @param  period     the distance from one stripe to the next
+     * @param  thickness  the height of each stripe, from 1 to period
+     * @param  offset     the first row of a stripe
+     * @param  colour     a colour packed as 0xRRGGBB, or RANDOM
+     * @return            this overlay
+     */
+    public PatternOverlay rows(int period, int thickness, int offset,
+                               int colour)
+    {
+        return add(period, thickness, offset, 1, 1, 0, AND, colour,
+                   ALL_CHANNELS);
+    }
+
+    /**
+     * Adds a grid of lines of the given thickness every period pixels in
+     * both directions, starting at the top left corner.
+     *
+     * @param  period     the distance from one line to the next
+     * @param  thickness  the width of each line, from 1 to period
+     * @param  colour     a colour packed as 0xRRGGBB, or RANDOM
+     * @return            this overlay
+     */
+    public PatternOverlay grid(int period, int thickness, int colour)
+    {
+        return add(period, thickness, 0, period, thickness, 0, OR, colour,
+                   ALL_CHANNELS);
+    }
+
+    /**
+     * Adds a checkerboard of square cells, painting every other cell and
+     * leaving the top left one as it is.
+     *
+     * @param  size    the side of each cell
+     * @param  colour  a colour packed as 0xRRGGBB, or RANDOM
+     * @return         this overlay
+     */
+    public PatternOverlay checkerboard(int size, int colour)
+    {
+        return add(2 * size, size, 0, 2 * size, size, 0, XOR, colour,
+                   ALL_CHANNELS);
+    }
+
+    /**
+     * Adds any pattern of two sets of lines.
+     *
+     * @param  rowPeriod        the distance between row lines
+     * @param  rowThickness     the height of each row line
+     * @param  rowOffset        the first row of a row line
+     * @param  columnPeriod     the distance between column lines
+     * @param  columnThickness  the width of each column line
+     * @param  columnOffset     the first column of a column line
+     * @param  combine          AND, OR or XOR
+     * @param  colour           a colour packed as 0xRRGGBB, or RANDOM
+     * @param  mask             the channels to write, as 0xRRGGBB bits;
+     *                          the other channels keep their values
+     * @return                  this overlay
+     * @throws                  IllegalArgumentException if a period is
+     *                          not positive, a thickness is not from 1 to
+     *                          its period or the combination is unknown
+     */
+    public PatternOverlay add(int rowPeriod, int rowThickness, int rowOffset,
+                              int columnPeriod, int columnThickness,
+                              int columnOffset, int combine, int colour,
+                              int mask)
+    {
+        if (combine != AND && combine != OR && combine != XOR)
+            throw new IllegalArgumentException("Invalid combination.");
+        layers.add(new Layer(new Lines(rowPeriod, rowThickness, rowOffset),
+                             new Lines(columnPeriod, columnThickness,
+                                       columnOffset),
+                             combine, colour, mask, random.nextLong()));
+        return this;
+    }
+
+    /**
+     * Returns a copy of the image with every pattern painted on it.  The
+     * result is a color image, with transparency if the image has it.
+     *
+     * @param  image  the image to paint on
+     * @return        the painted image
+     */
+    public EzImage apply(EzImage image)
+    {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] pixels = image.getPackedPixels();
+        int stripes = (height + STRIPE_ROWS - 1) / STRIPE_ROWS;
+        IntStream.range(0, stripes).parallel().forEach(s -> {
+            int y0 = s * STRIPE_ROWS;
+            int y1 = Math.min(height, y0 + STRIPE_ROWS);
+            for (Layer layer : layers)
+                layer.paint(pixels, width, y0, y1);
+        });
+        return EzImage.fromPackedPixels(pixels, height, width,
+                                        image.numColorBands() == 4);
+    }
+
+    /**
+     * One set of evenly spaced lines along an axis.
+     */
+    private static class Lines
+    {
+        final int period;
+        final int thickness;
+        final int offset;
+
+        Lines(int period, int thickness, int offset)
+        {
+            if (period < 1)
+                throw new IllegalArgumentException("period must be positive");
+            if (thickness < 1 || thickness > period)
+                throw new IllegalArgumentException(
+                        "thickness must be from 1 to the period");
+            this.period = period;
+            this.thickness = thickness;
+            // Reduce the offset to 0..period-1.
+            this.offset = Math.floorMod(offset, period);
+        }
+
+        /** The lines not in this set; thickness must be below the period. */
+        Lines complement()
+        {
+            return new Lines(period, period - thickness, offset + thickness);
+        }
+
+        boolean full()
+        {
+            return thickness == period;
+        }
+
+        /** The first index of the line that starts at or before from. */
+        int firstStart(int from)
+        {
+            return from - Math.floorMod(from - offset, period);
+        }
+
+        /** The number of the line starting at start, or 0 for full sets. */
+        long number(int start)
+        {
+            return full() ? 0 : Math.floorDiv(start - offset, period);
+        }
+    }
+
+    /**
+     * One pattern: two sets of lines, how they combine and what is
+     * written.
+     */
+    private static class Layer
+    {
+        final Lines rows;
+        final Lines columns;
+        final int combine;
+        final int colour;
+        final int keep;
+        final int mask;
+        final long seed;
+
+        Layer(Lines rows, Lines columns, int combine, int colour, int mask,
+              long seed)
+        {
+            this.rows = rows;
+            this.columns = columns;
+            this.combine = combine;
+            this.colour = colour;
+            this.mask = mask & ALL_CHANNELS;
+            this.keep = ~this.mask;
+            this.seed = seed;
+        }
+
+        /** Paints the rows from y0 up to y1. */
+        void paint(int[] pixels, int width, int y0, int y1)
+        {
+            for (int start = rows.firstStart(y0); start < y1;
+                 start += rows.period)
+            {
+                // Rows in a line and rows in the gap after it number apart.
+                long row = 2 * rows.number(start);
+                int from = Math.max(y0, start);
+                int to = Math.min(y1, start + rows.thickness);
+
+                // Rows inside a row line, then the gap before the next one.
+                int gapEnd = Math.min(y1, start + rows.period);
+                for (int y = from; y < to; y++)
+                {
+                    if (combine == AND)
+                        paintLines(pixels, y * width, width, columns, row);
+                    else if (combine == OR)
+                        paintRun(pixels, y * width, 0, width, cell(row, NONE));
+                    else if (!columns.full())
+                        paintLines(pixels, y * width, width,
+                                   columns.complement(), row);
+                }
+                if (combine == AND || rows.full())
+                    continue;
+                // A column line of a grid is one line, whatever row it is in.
+                long gap = combine == OR ? NONE : row + 1;
+                for (int y = Math.max(y0, to); y < gapEnd; y++)
+                    paintLines(pixels, y * width, width, columns, gap);
+            }
+        }
+
+        /** Paints the lines of one row that belong to the column set. */
+        void paintLines(int[] pixels, int base, int width, Lines lines,
+                        long row)
+        {
+            for (int start = lines.firstStart(0); start < width;
+                 start += lines.period)
+                paintRun(pixels, base, Math.max(0, start),
+                         Math.min(width, start + lines.thickness),
+                         cell(row, lines.number(start)));
+        }
+
+        void paintRun(int[] pixels, int base, int from, int to, int value)
+        {
+            value &= mask;
+            for (int i = base + from; i < base + to; i++)
+                pixels[i] = (pixels[i] & keep) | value;
+        }
+
+        /** The colour of the stripe or cell with the given numbers. */
+        int cell(long row, long column)
+        {
+            if (colour != RANDOM)
+                return colour;
+            long key = seed + GOLDEN * (row * GOLDEN + column);
+            return new SplittableRandom(key).nextInt(1 << 24);
+        }
+    }
+}
@@ -13,6 +13,7 @@ public class PhotoLab
 
  public EzImage onlyRed(EzImage image)
    {
+     ImageEvent event = ImageEvent.start();
      int[][][] pixels = image.getPixels3D();
 
      for(int i=0; i<pixels.length; i++){
@@ -25,10 +26,11 @@ public class PhotoLab
         }
       
      EzImage fixed = new EzImage(pixels);
-     return fixed;
+     return event.finish("PhotoLab.onlyRed", image, fixed);
     }
    public EzImage negate(EzImage image)
    {
+     ImageEvent event = ImageEvent.start();
      int[][][] pixels = image.getPixels3D();
      for (int i=0;i<pixels.length; i++){
             
@@ -40,7 +42,7 @@ public class PhotoLab
        
      }
      EzImage fixed = new EzImage(pixels);
-     return fixed;
+     return event.finish("PhotoLab.negate", image, fixed);
  }
  
  public static void insertionSort (int [] numbers){
@@ -58,37 +60,252 @@ public class PhotoLab
     
  public EzImage inOrder(EzImage image)
  {
+     ImageEvent event = ImageEvent.start();
      EzImage newImage = image.copyToGrayScale();
      int [] grayArray = newImage.getPixels1D();
      insertionSort(grayArray);
      newImage.setPixels(grayArray);
-     return newImage;
+     return event.finish("PhotoLab.inOrder", image, newImage);
     }
 
+ /**
+  * Returns a copy of the image with all of its pixels in order of the
+  * given key (see PixelSort), keeping their colours.
+  */
+ public EzImage inOrder(EzImage image, int key)
+ {
+     return sortPixels(image, key, PixelSort.WHOLE);
+ }
+
+ /**
+  * Returns a copy of the image with its pixels sorted by the given key:
+  * the whole image, or each row or column on its own (see PixelSort).
+  */
+ public EzImage sortPixels(EzImage image, int key, int mode)
+ {
+     ImageEvent event = ImageEvent.start();
+     EzImage result = PixelSort.sort(image, key, mode);
+     return event.finish("PhotoLab.sortPixels", image, result);
+ }
+
  public EzImage colourful(EzImage image)
  {
-     int[][][] pixels = image.getPixels3D();
-     Random random = new Random();
-     int red = random.nextInt(256);
-     int blue = random.nextInt(256);
-     int green = random.nextInt(256);
-     for (int i=0;i<pixels.length; i++){
-       int imageWidth = image.getWidth();
-       for (int j=0;j<pixels[0].length;j++){
-          if (j % 5  == 0){
-           pixels[i][j][1] = red;
-           pixels[i][j][2] = blue;
-           pixels[i][j][0] = green;
-          if(i % 10 == 0){
-          pixels[i][j][1] = 0;
-          pixels[i][j][0] = 0;
-        }
-       }
-        }
-       
-      
-     }
-     EzImage fixed = new EzImage(pixels);
-     return fixed;
-}
+     return colourful(image, new Random().nextLong());
+ }
+
+ /**
+  * Returns a copy of the image with every fifth column painted in a
+  * colour drawn from the seed, and only its blue kept on every tenth
+  * row.  The same seed always gives the same colour.
+  */
+ public EzImage colourful(EzImage image, long seed)
+ {
+     ImageEvent event = ImageEvent.start();
+     PatternOverlay overlay = new PatternOverlay(seed);
+     int red = overlay.nextColour() & 0xFF;
+     int blue = overlay.nextColour() & 0xFF;
+     int green = overlay.nextColour() & 0xFF;
+     // Green goes in the red channel and red in the green one.
+     overlay.columns(5, 1, 0, (green << 16) | (red << 8) | blue);
+     overlay.add(10, 1, 0, 5, 1, 0, PatternOverlay.AND, 0, 0xFFFF00);
+     EzImage fixed = overlay.apply(image);
+     return event.finish("PhotoLab.colourful", image, fixed);
+ }
+
+ /**
+  * Returns a copy of the image blurred with a Gaussian of the given
+  * standard deviation (in pixels).
+  */
+ public EzImage gaussianBlur(EzImage image, double sigma)
+ {
+     ImageEvent event = ImageEvent.start();
+     EzImage result = Convolution.convolve(image,
+                                           ConvolutionKernel.gaussian(sigma));
+     return event.finish("PhotoLab.gaussianBlur", image, result);
+ }
+
+ /**
+  * Returns a copy of the image where every pixel is the average of the
+  * square of side 2*radius+1 around it.
+  */
+ public EzImage boxBlur(EzImage image, int radius)
+ {
+     ImageEvent event = ImageEvent.start();
+     EzImage result = Convolution.convolve(image,
+                                           ConvolutionKernel.box(radius));
+     return event.finish("PhotoLab.boxBlur", image, result);
+ }
+
+ /**
+  * Returns a sharpened copy of the image, using the 3x3 kernel that
+  * subtracts the four neighbours of each pixel.
+  */
+ public EzImage sharpen(EzImage image)
+ {
+     ImageEvent event = ImageEvent.start();
+     EzImage result = Convolution.convolve(image, ConvolutionKernel.sharpen(1));
+     return event.finish("PhotoLab.sharpen", image, result);
+ }
+
+ /**
+  * Returns a gray-scale image of the edges in the image: the magnitude of
+  * the Sobel gradient, clamped to 0-255.
+  */
+ public EzImage sobel(EzImage image)
+ {
+     ImageEvent event = ImageEvent.start();
+     EzImage gray = image.isColor() ? image.copyToGrayScale() : image;
+     int width = gray.getWidth();
+     int height = gray.getHeight();
+     int[] pixels = gray.getPixels1D();
+     int[] gx = Convolution.convolve(pixels, width, height,
+                                     ConvolutionKernel.sobelX());
+     int[] gy = Convolution.convolve(pixels, width, height,
+                                     ConvolutionKernel.sobelY());
+     for (int i=0; i<pixels.length; i++)
+         pixels[i] = (int)Math.min(255,
+                 Math.round(Math.sqrt(gx[i]*gx[i] + gy[i]*gy[i])));
+     EzImage result = new EzImage(pixels, height, width);
+     return event.finish("PhotoLab.sobel", image, result);
+ }
+
+ /**
+  * Returns a black and white copy of the image where a pixel is white if
+  * it is brighter than the mean of the square of side 2*radius+1 around it
+  * minus offset.  Unlike a single global threshold this copes with uneven
+  * lighting.
+  */
+ public EzImage adaptiveThreshold(EzImage image, int radius, int offset)
+ {
+     ImageEvent event = ImageEvent.start();
+     EzImage gray = image.isColor() ? image.copyToGrayScale() : image;
+     int[] pixels = gray.getPixels1D();
+     int[] means = gray.getIntegralImage(EzImage.GRAY, false).boxMeans(radius);
+     for (int i=0; i<pixels.length; i++)
+         pixels[i] = pixels[i] > means[i] - offset ? 255 : 0;
+     EzImage result = new EzImage(pixels, gray.getHeight(), gray.getWidth());
+     return event.finish("PhotoLab.adaptiveThreshold", image, result);
+ }
+
+ /**
+  * Returns a copy of the image where every pixel is replaced by the median
+  * of the square of side 2*radius+1 around it.  This removes speckle noise
+  * while keeping edges sharp.
+  */
+ public EzImage median(EzImage image, int radius)
+ {
+     ImageEvent event = ImageEvent.start();
+     EzImage result = MedianFilter.median(image, radius);
+     return event.finish("PhotoLab.median", image, result);
+ }
+
+ /**
+  * Returns a copy of the image where every pixel is replaced by the given
+  * percentile (0 to 1) of the square of side 2*radius+1 around it.  0 takes
+  * the darkest pixel and 1 the brightest.
+  */
+ public EzImage percentile(EzImage image, int radius, double percentile)
+ {
+     ImageEvent event = ImageEvent.start();
+     EzImage result = MedianFilter.percentile(image, radius, percentile);
+     return event.finish("PhotoLab.percentile", image, result);
+ }
+
+ /**
+  * Returns a copy of the image with the mark drawn in its bottom right
+  * corner, ten pixels in from the edges, at the given opacity (0 to 1).
+  * Transparent parts of the mark leave the image unchanged.
+  */
+ public EzImage watermark(EzImage image, EzImage mark, double opacity)
+ {
+     ImageEvent event = ImageEvent.start();
+     int row = image.getHeight() - mark.getHeight() - 10;
+     int column = image.getWidth() - mark.getWidth() - 10;
+     EzImage result = image.blend(mark, Blend.OVER, opacity, row, column);
+     return event.finish("PhotoLab.watermark", image, result);
+ }
+
+ /**
+  * Returns a copy of the image with every hue turned by the given number
+  * of degrees around the color wheel.
+  */
+ public EzImage hueShift(EzImage image, int degrees)
+ {
+     ImageEvent event = ImageEvent.start();
+     int[][] hsv = ColorConversion.fromImage(image, ColorConversion.HSV);
+     int shift = ((degrees % 360) + 360) % 360;
+     for (int i=0; i<hsv[0].length; i++)
+         hsv[0][i] = (hsv[0][i] + shift) % 360;
+     EzImage result = ColorConversion.toImage(hsv, ColorConversion.HSV,
+                                              image.getHeight(),
+                                              image.getWidth());
+     return event.finish("PhotoLab.hueShift", image, result);
+ }
+
+ /**
+  * Returns a copy of the image with the saturation of every pixel
+  * multiplied by factor: 0 gives gray, 1 leaves the image unchanged and
+  * larger values make colors stronger.
+  */
+ public EzImage saturate(EzImage image, double factor)
+ {
+     ImageEvent event = ImageEvent.start();
+     int[][] hsv = ColorConversion.fromImage(image, ColorConversion.HSV);
+     int scale = (int)Math.round(factor * 256);
+     for (int i=0; i<hsv[1].length; i++)
+         hsv[1][i] = Math.min(255, (hsv[1][i] * scale + 128) >> 8);
+     EzImage result = ColorConversion.toImage(hsv, ColorConversion.HSV,
+                                              image.getHeight(),
+                                              image.getWidth());
+     return event.finish("PhotoLab.saturate", image, result);
+ }
+
+ /**
+  * Returns a copy of the image using at most the given number of colors
+  * (1 to 256), chosen to suit the image.  With dither the remaining error
+  * is spread to neighbouring pixels, which hides banding in gradients.
+  */
+ public EzImage reduceColors(EzImage image, int colors, boolean dither)
+ {
+     ImageEvent event = ImageEvent.start();
+     ColorQuantizer quantizer =
+         new ColorQuantizer(ColorQuantizer.buildPalette(image, colors));
+     int mode = dither ? ColorQuantizer.FLOYD_STEINBERG : ColorQuantizer.NONE;
+     EzImage result = quantizer.apply(image, mode);
+     return event.finish("PhotoLab.reduceColors", image, result);
+ }
+
+ /**
+  * Returns a copy of the image with the histogram of each band equalized,
+  * which spreads its values over the whole range 0-255.
+  */
+ public EzImage equalize(EzImage image)
+ {
+     ImageEvent event = ImageEvent.start();
+     EzImage result = Contrast.equalize(image);
+     return event.finish("PhotoLab.equalize", image, result);
+ }
+
+ /**
+  * Returns a copy of the image with local contrast raised by equalizing
+  * each of tiles by tiles regions, limited so that no value grows more
+  * common than clipLimit times the mean (see Contrast).
+  */
+ public EzImage clahe(EzImage image, int tiles, double clipLimit)
+ {
+     ImageEvent event = ImageEvent.start();
+     EzImage result = Contrast.clahe(image, tiles, clipLimit);
+     return event.finish("PhotoLab.clahe", image, result);
+ }
+
+ /**
+  * Returns a copy of the image with each band stretched to 0-255, after
+  * ignoring the darkest and brightest clip fraction (0 to 0.5) of it.
+  */
+ public EzImage autoLevels(EzImage image, double clip)
+ {
+     ImageEvent event = ImageEvent.start();
+     EzImage result = Contrast.autoLevels(image, clip);
+     return event.finish("PhotoLab.autoLevels", image, result);
+ }
 }
@@ -12,6 +12,7 @@
 
 import java.io.*;
 import java.awt.*;
+import java.util.Arrays;
 
 class PhotoLabTester
 {
@@ -34,5 +35,16 @@ class PhotoLabTester
         
         imageNew = photoLab.colourful(imageSecond);
         imageNew.show("Colourful", 0, 700);
+
+        // A blur must leave a flat image unchanged, however wide it is
+        int[] flat = new int[100 * 100];
+        Arrays.fill(flat, 200);
+        EzImage imageFlat = new EzImage(flat, 100, 100);
+        for (double sigma : new double[] { 1, 20, 40 })
+        {
+            imageNew = photoLab.gaussianBlur(imageFlat, sigma);
+            System.out.println("Gaussian blur " + sigma + " of flat 200 " +
+                    "(should be 200) = " + imageNew.getPixels1D()[5050]);
+        }
     }
 }
\ No newline at end of file
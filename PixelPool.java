@@ -0,0 +1,309 @@
+import java.awt.image.BufferedImage;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A PixelPool keeps pixel arrays and images that are no longer needed so
+ * that later ones of the same size can reuse them instead of being
+ * allocated again.  In a loop that filters many images of the same size,
+ * acquiring arrays here and passing them to the getPixels methods that
+ * take an array, and recycling finished images, keeps the loop from
+ * creating garbage at hundreds of megabytes per second.
+ *
+ * Each array length is a size class of its own, because a Java array
+ * cannot be shortened and the pixel methods check the length; images are
+ * pooled by type, width and height.  At most a few entries are kept per
+ * class, and nothing more is kept once the pool holds its limit of bytes,
+ * so a pool never grows without bound.
+ *
+ * When Java is run with -Dezimage.pool.debug=true, the pool also records
+ * where each array was acquired.  If an array is garbage collected without
+ * having been released, the place it was acquired is printed to the error
+ * stream, and releasing an array twice throws IllegalStateException.
+ * Without the property none of this costs anything.
+ *
+ * All of the methods may be called from any thread.
+ *
+ * @author shreya-va
+ */
+public class PixelPool
+{
+    private static final int PER_CLASS = 4;
+    private static final long DEFAULT_LIMIT = 64L << 20;
+    private static final boolean DEBUG = Boolean.getBoolean("ezimage.pool.debug");
+
+    private static final Map<Integer, ArrayDeque<int[]>> arrays =
+        new HashMap<Integer, ArrayDeque<int[]>>();
+    private static final Map<ImageKey, ArrayDeque<BufferedImage>> images =
+        new HashMap<ImageKey, ArrayDeque<BufferedImage>>();
+    private static long bytes;
+    private static long limit = DEFAULT_LIMIT;
+
+    // Debug mode only: the arrays handed out and not yet released.
+    private static final Set<Loan> loans = new HashSet<Loan>();
+    private static final ReferenceQueue<int[]> lost = new ReferenceQueue<int[]>();
+
+    private PixelPool()
+    {
+    }
+
+    /**
+     * Returns an array of exactly the given length, reused from the pool
+     * if one is there.  Its contents are whatever they were when it was
+     * released, so it should be filled before being read.
+     *
+     * @param  length  the number of elements
+     * @return         an array of that length
+     */
+    public static int[] acquire(int length)
+    {
+        if (length < 0)
+            throw new IllegalArgumentException("length must not be negative");
+        int[] result = null;
+        synchronized (PixelPool.class)
+        {
+            ArrayDeque<int[]> free = arrays.get(length);
+            if (free != null && !free.isEmpty())
+            {
+                result = free.pop();
+                bytes -= 4L * length;
+            }
+        }
+        if (result == null)
+        {
+            Metrics.increment("PixelPool.miss");
+            result = new int[length];
+        }
+        else
+            Metrics.increment("PixelPool.hit");
+        if (DEBUG)
+            lend(result);
+        return result;
+    }
+
+    /**
+     * Gives an array back to the pool.  The caller must not use it
+     * afterwards.
+     *
+     * @param  array  an array, usually from acquire; null is ignored
+     * @throws        IllegalStateException in debug mode, if the array was
+     *                acquired and has already been released
+     */
+    public static void release(int[] array)
+    {
+        if (array == null)
+            return;
+        if (DEBUG)
+            repay(array);
+        synchronized (PixelPool.class)
+        {
+            long size = 4L * array.length;
+            if (bytes + size > limit)
+                return;
+            ArrayDeque<int[]> free = arrays.get(array.length);
+            if (free == null)
+            {
+                free = new ArrayDeque<int[]>(PER_CLASS);
+                arrays.put(array.length, free);
+            }
+            if (free.size() < PER_CLASS)
+            {
+                free.push(array);
+                bytes += size;
+            }
+        }
+    }
+
+    /**
+     * Returns an image of the given BufferedImage type and size, reused
+     * from the pool if one is there.  Its pixels are whatever they were
+     * when it was recycled.
+     */
+    static BufferedImage acquireImage(int type, int width, int height)
+    {
+        synchronized (PixelPool.class)
+        {
+            ArrayDeque<BufferedImage> free =
+                images.get(new ImageKey(type, width, height));
+            if (free != null && !free.isEmpty())
+            {
+                bytes -= size(free.peek());
+                Metrics.increment("PixelPool.imageHit");
+                return free.pop();
+            }
+        }
+        Metrics.increment("PixelPool.imageMiss");
+        return new BufferedImage(width, height, type);
+    }
+
+    /**
+     * Keeps an image for acquireImage.  Only the types EzImage creates
+     * are kept, since no other type is ever asked for.
+     */
+    static void releaseImage(BufferedImage image)
+    {
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_BYTE_GRAY &&
+            type != BufferedImage.TYPE_INT_RGB &&
+            type != BufferedImage.TYPE_INT_ARGB)
+            return;
+        synchronized (PixelPool.class)
+        {
+            long size = size(image);
+            if (bytes + size > limit)
+                return;
+            ImageKey key = new ImageKey(type, image.getWidth(), image.getHeight());
+            ArrayDeque<BufferedImage> free = images.get(key);
+            if (free == null)
+            {
+                free = new ArrayDeque<BufferedImage>(PER_CLASS);
+                images.put(key, free);
+            }
+            if (free.size() < PER_CLASS)
+            {
+                free.push(image);
+                bytes += size;
+            }
+        }
+    }
+
+    /**
+     * Sets the most memory the pool may hold, in bytes.  The default is
+     * 64MB.  Lowering the limit empties the pool.
+     *
+     * @param  bytes  the limit; 0 turns pooling off
+     */
+    public static synchronized void setLimit(long bytes)
+    {
+        if (bytes < 0)
+            throw new IllegalArgumentException("limit must not be negative");
+        if (bytes < limit)
+            clear();
+        limit = bytes;
+    }
+
+    /**
+     * Drops everything held by the pool.
+     */
+    public static synchronized void clear()
+    {
+        arrays.clear();
+        images.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Returns the number of bytes the pool currently holds.
+     *
+     * @return   the memory held
+     */
+    public static synchronized long size()
+    {
+        return bytes;
+    }
+
+    private static long size(BufferedImage image)
+    {
+        int bits = image.getColorModel().getPixelSize();
+        return (long)image.getWidth() * image.getHeight() * ((bits + 7) / 8);
+    }
+
+    /**
+     * Records where the array was handed out, after reporting any arrays
+     * lent earlier that have since been collected.
+     */
+    private static void lend(int[] array)
+    {
+        Loan loan = new Loan(array);
+        synchronized (loans)
+        {
+            reportLost();
+            loans.add(loan);
+        }
+    }
+
+    private static void repay(int[] array)
+    {
+        synchronized (loans)
+        {
+            reportLost();
+            Loan found = null;
+            for (Loan loan : loans)
+                if (loan.get() == array)
+                    found = loan;
+            if (found != null)
+                loans.remove(found);
+            else if (contains(array))
+                throw new IllegalStateException("array released twice");
+        }
+    }
+
+    private static synchronized boolean contains(int[] array)
+    {
+        ArrayDeque<int[]> free = arrays.get(array.length);
+        if (free != null)
+            for (int[] a : free)
+                if (a == array)
+                    return true;
+        return false;
+    }
+
+    // Called with the loans lock held.
+    private static void reportLost()
+    {
+        Loan loan;
+        while ((loan = (Loan)lost.poll()) != null)
+            if (loans.remove(loan))
+            {
+                System.err.println("PixelPool: an array of " + loan.length +
+                        " pixels was never released.  It was acquired at:");
+                loan.origin.printStackTrace();
+            }
+    }
+
+    // An array lent in debug mode, and where it was acquired.
+    private static class Loan extends WeakReference<int[]>
+    {
+        final Throwable origin = new Throwable("acquired here");
+        final int length;
+
+        Loan(int[] array)
+        {
+            super(array, lost);
+            length = array.length;
+        }
+    }
+
+    private static class ImageKey
+    {
+        final int type;
+        final int width;
+        final int height;
+
+        ImageKey(int type, int width, int height)
+        {
+            this.type = type;
+            this.width = width;
+            this.height = height;
+        }
+
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof ImageKey))
+                return false;
+            ImageKey key = (ImageKey)other;
+            return type == key.type && width == key.width &&
+                   height == key.height;
+        }
+
+        public int hashCode()
+        {
+            return (type * 31 + width) * 31 + height;
+        }
+    }
+}
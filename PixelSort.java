@@ -0,0 +1,233 @@
+import java.util.stream.IntStream;
+
+/**
+ * The PixelSort class sorts the pixels of a color image by a key computed
+ * from each pixel: its luminance, hue or saturation, or the value of one
+ * channel.  The whole image can be sorted into row-major order, or each
+ * row or each column can be sorted on its own for the streaked "pixel
+ * sort" look.
+ *
+ * Each pixel is packed into a long with its key in the high half and its
+ * ARGB value in the low half, and the longs are sorted with
+ * Sorting.radixSortByKey, which looks at the key bits only.  Every key
+ * has at most 11 bits, so a sort is one counting pass and one scatter
+ * pass.  The sort is stable: pixels with equal keys keep their order.
+ * Rows and columns are sorted in parallel, a block of lines per task.
+ *
+ * @author shreya-va
+ */
+public class PixelSort
+{
+    // Sort keys; EzImage.RED, GREEN and BLUE also sort by one channel.
+    public static final int LUMINANCE = -9001;
+    public static final int HUE = -9002;
+    public static final int SATURATION = -9003;
+
+    // What is sorted.
+    public static final int WHOLE = -9011;
+    public static final int ROWS = -9012;
+    public static final int COLUMNS = -9013;
+
+    // Lines per parallel task in the ROWS and COLUMNS modes.
+    private static final int BLOCK = 32;
+
+    private PixelSort()
+    {
+    }
+
+    /**
+     * Returns a copy of the image with its pixels sorted by the given key,
+     * from the lowest to the highest.  The result is a color image, with
+     * transparency if the image has it.
+     *
+     * @param  image  the image to sort
+     * @param  key    LUMINANCE, HUE, SATURATION, or EzImage.RED, GREEN or
+     *                BLUE
+     * @param  mode   WHOLE, ROWS or COLUMNS
+     * @return        the sorted image
+     * @throws        IllegalArgumentException if the key or mode is
+     *                unknown
+     */
+    public static EzImage sort(EzImage image, int key, int mode)
+    {
+        final int keyBits = keyBits(key);
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] pixels = image.getPackedPixels();
+        if (mode == WHOLE)
+        {
+            final long[] packed = new long[pixels.length];
+            final int rows = Math.max(1, (1 << 16) / Math.max(1, width));
+            IntStream.range(0, (height + rows - 1) / rows).parallel()
+                .forEach(b -> {
+                    int from = b * rows * width;
+                    int to = Math.min(pixels.length, from + rows * width);
+                    pack(pixels, from, packed, from, to - from, key);
+                });
+            Sorting.radixSortByKey(packed, keyBits);
+            IntStream.range(0, pixels.length).parallel()
+                .forEach(i -> pixels[i] = (int)packed[i]);
+        }
+        else if (mode == ROWS)
+        {
+            IntStream.range(0, (height + BLOCK - 1) / BLOCK).parallel()
+                .forEach(b -> {
+                    long[] line = new long[width];
+                    long[] buffer = new long[width];
+                    for (int y = b * BLOCK;
+                         y < Math.min(height, (b + 1) * BLOCK); y++)
+                    {
+                        pack(pixels, y * width, line, 0, width, key);
+                        Sorting.radixSortByKey(line, 0, width, keyBits,
+                                               buffer);
+                        for (int x = 0; x < width; x++)
+                            pixels[y * width + x] = (int)line[x];
+                    }
+                });
+        }
+        else if (mode == COLUMNS)
+        {
+            IntStream.range(0, (width + BLOCK - 1) / BLOCK).parallel()
+                .forEach(b -> sortColumns(pixels, width, height, b * BLOCK,
+                                          Math.min(width, (b + 1) * BLOCK),
+                                          key, keyBits));
+        }
+        else
+            throw new IllegalArgumentException("Invalid mode.");
+        return EzImage.fromPackedPixels(pixels, height, width,
+                                        image.numColorBands() == 4);
+    }
+
+    /**
+     * Returns the key of a pixel packed as 0xAARRGGBB.
+     *
+     * @param  key    LUMINANCE, HUE, SATURATION, or EzImage.RED, GREEN or
+     *                BLUE
+     * @param  pixel  the pixel
+     * @return        the key: 0-1535 for HUE (256 steps for each sixth of
+     *                the color wheel, starting at red), 0-255 otherwise
+     */
+    public static int key(int key, int pixel)
+    {
+        int red = (pixel >> 16) & 0xFF;
+        int green = (pixel >> 8) & 0xFF;
+        int blue = pixel & 0xFF;
+        switch (key)
+        {
+            case LUMINANCE:
+                // ITU-R BT.601 weights, in 256ths.
+                return (77 * red + 150 * green + 29 * blue) >> 8;
+            case HUE:
+                return hue(red, green, blue);
+            case SATURATION:
+                int max = Math.max(red, Math.max(green, blue));
+                int min = Math.min(red, Math.min(green, blue));
+                return max == 0 ? 0 : (max - min) * 255 / max;
+            case EzImage.RED:
+                return red;
+            case EzImage.GREEN:
+                return green;
+            case EzImage.BLUE:
+                return blue;
+            default:
+                throw new IllegalArgumentException("Invalid key.");
+        }
+    }
+
+    private static int keyBits(int key)
+    {
+        switch (key)
+        {
+            case HUE:
+                return 11;
+            case LUMINANCE:
+            case SATURATION:
+            case EzImage.RED:
+            case EzImage.GREEN:
+            case EzImage.BLUE:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Invalid key.");
+        }
+    }
+
+    private static int hue(int red, int green, int blue)
+    {
+        int max = Math.max(red, Math.max(green, blue));
+        int range = max - Math.min(red, Math.min(green, blue));
+        if (range == 0)
+            return 0;
+        int hue;
+        if (max == red)
+            hue = (green - blue) * 256 / range;
+        else if (max == green)
+            hue = 512 + (blue - red) * 256 / range;
+        else
+            hue = 1024 + (red - green) * 256 / range;
+        return hue < 0 ? hue + 1536 : hue;
+    }
+
+    /**
+     * Puts the key of each pixel above the pixel.  The choice of key is
+     * made once, outside the loops, so that each loop compiles to
+     * straight-line code.
+     */
+    private static void pack(int[] pixels, int from, long[] packed, int to,
+                             int count, int key)
+    {
+        int end = from + count;
+        int shift = key == EzImage.RED ? 16 : key == EzImage.GREEN ? 8 : 0;
+        switch (key)
+        {
+            case LUMINANCE:
+                for (int i = from, j = to; i < end; i++, j++)
+                {
+                    int p = pixels[i];
+                    int luminance = (77 * ((p >> 16) & 0xFF) +
+                                     150 * ((p >> 8) & 0xFF) +
+                                     29 * (p & 0xFF)) >> 8;
+                    packed[j] = (long)luminance << 32 | (p & 0xFFFFFFFFL);
+                }
+                break;
+            case EzImage.RED:
+            case EzImage.GREEN:
+            case EzImage.BLUE:
+                for (int i = from, j = to; i < end; i++, j++)
+                {
+                    int p = pixels[i];
+                    packed[j] = (long)((p >> shift) & 0xFF) << 32 |
+                                (p & 0xFFFFFFFFL);
+                }
+                break;
+            default:
+                for (int i = from, j = to; i < end; i++, j++)
+                    packed[j] = (long)key(key, pixels[i]) << 32 |
+                                (pixels[i] & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * Sorts columns x0 up to x1.  They are copied out a row at a time, so
+     * the image is read and written in runs rather than down each column.
+     */
+    private static void sortColumns(int[] pixels, int width, int height,
+                                    int x0, int x1, int key, int keyBits)
+    {
+        int columns = x1 - x0;
+        long[] lines = new long[columns * height];
+        long[] buffer = new long[height];
+        for (int y = 0; y < height; y++)
+            for (int c = 0; c < columns; c++)
+            {
+                int pixel = pixels[y * width + x0 + c];
+                lines[c * height + y] = (long)key(key, pixel) << 32 |
+                                        (pixel & 0xFFFFFFFFL);
+            }
+        for (int c = 0; c < columns; c++)
+            Sorting.radixSortByKey(lines, c * height, (c + 1) * height,
+                                   keyBits, buffer);
+        for (int y = 0; y < height; y++)
+            for (int c = 0; c < columns; c++)
+                pixels[y * width + x0 + c] = (int)lines[c * height + y];
+    }
+}
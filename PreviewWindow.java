@@ -0,0 +1,269 @@
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.WindowConstants;
+
+/**
+ * A PreviewWindow shows an EzImage that keeps changing, such as the output
+ * of a filter while its parameters are being adjusted.  Unlike
+ * EzImage.show, which opens a new window holding a new copy every time,
+ * a preview reuses one window and one screen-compatible image, which Java2D
+ * can keep in video memory.
+ *
+ * Each update copies only the changed rectangle into that image and marks
+ * it for repainting.  Repaints happen at most a fixed number of times per
+ * second, and all of the rectangles changed in between are repainted
+ * together, so filters can update as often as they like.
+ *
+ * When Java runs headless (java.awt.headless=true), a PreviewWindow does
+ * nothing at all, so code that uses one also runs on servers.
+ *
+ * @author shreya-va
+ */
+public class PreviewWindow
+{
+    private static final int DEFAULT_FRAME_RATE = 30;
+
+    private final String title;
+    private final boolean headless;
+    private JFrame frame;
+    private Surface surface;
+    private Timer timer;
+    private int rate = DEFAULT_FRAME_RATE;
+    private long lastRepaint;
+    private boolean closed;
+
+    // The area changed since the last repaint; guarded by this
+    private Rectangle dirty;
+
+    /**
+     * Constructs a preview with the given window title.  The window opens
+     * with the first update.
+     *
+     * @param  title  the title of the window
+     */
+    public PreviewWindow(String title)
+    {
+        this.title = title;
+        this.headless = GraphicsEnvironment.isHeadless();
+        this.lastRepaint = System.nanoTime() - 1000000000L;
+    }
+
+    /**
+     * Returns true if the preview really shows anything, which is when
+     * Java is not headless and the window has not been closed.
+     *
+     * @return   true if updates are displayed
+     */
+    public synchronized boolean isActive()
+    {
+        return !headless && !closed;
+    }
+
+    /**
+     * Sets the largest number of repaints per second.  The default is 30.
+     *
+     * @param  framesPerSecond  the refresh limit, at least 1
+     */
+    public synchronized void setMaxFrameRate(int framesPerSecond)
+    {
+        if (framesPerSecond < 1)
+            throw new IllegalArgumentException("frame rate must be at least 1");
+        rate = framesPerSecond;
+        if (timer != null)
+            timer.setDelay(1000 / rate);
+    }
+
+    /**
+     * Shows the whole image.  If its size differs from the last image
+     * shown, the window is resized.
+     *
+     * @param  image  the image to show
+     */
+    public void update(EzImage image)
+    {
+        update(image, new Rectangle(image.getWidth(), image.getHeight()));
+    }
+
+    /**
+     * Shows the given part of the image, leaving the rest of the window as
+     * it was.  If the image's size differs from the last image shown, the
+     * whole image is shown instead.
+     *
+     * @param  image   the image to show
+     * @param  region  the part of the image that changed
+     */
+    public void update(EzImage image, Rectangle region)
+    {
+        if (!isActive())
+            return;
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Rectangle bounds = new Rectangle(width, height);
+        Surface target;
+        synchronized (this)
+        {
+            if (surface == null || surface.back.getWidth() != width ||
+                surface.back.getHeight() != height)
+            {
+                open(width, height);
+                region = bounds;
+            }
+            target = surface;
+        }
+        region = region.intersection(bounds);
+        if (region.isEmpty())
+            return;
+
+        // Copy the changed pixels while no repaint is reading them.
+        BufferedImage source = image.readImage();
+        synchronized (target.back)
+        {
+            Graphics2D g = target.back.createGraphics();
+            g.drawImage(source,
+                        region.x, region.y,
+                        region.x + region.width, region.y + region.height,
+                        region.x, region.y,
+                        region.x + region.width, region.y + region.height,
+                        null);
+            g.dispose();
+        }
+
+        synchronized (this)
+        {
+            dirty = dirty == null ? region : dirty.union(region);
+            if (!timer.isRunning())
+            {
+                // Wait out the rest of the frame after the last repaint.
+                long elapsed = (System.nanoTime() - lastRepaint) / 1000000;
+                timer.setInitialDelay((int)Math.max(0, 1000 / rate - elapsed));
+                timer.restart();
+            }
+        }
+    }
+
+    /**
+     * Closes the window.  Later updates do nothing.
+     */
+    public void close()
+    {
+        final JFrame window;
+        synchronized (this)
+        {
+            closed = true;
+            window = frame;
+            if (timer != null)
+                timer.stop();
+        }
+        if (window != null)
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    window.dispose();
+                }
+            });
+    }
+
+    /**
+     * Creates the window the first time, and a new screen-compatible image
+     * whenever the size changes.  Called with the lock held.
+     */
+    private void open(final int width, final int height)
+    {
+        GraphicsConfiguration config = GraphicsEnvironment
+            .getLocalGraphicsEnvironment().getDefaultScreenDevice()
+            .getDefaultConfiguration();
+        final Surface next = new Surface(config.createCompatibleImage(
+                width, height, Transparency.OPAQUE));
+        surface = next;
+        dirty = null;
+
+        if (timer == null)
+        {
+            timer = new Timer(1000 / rate, e -> repaintDirty());
+        }
+
+        final boolean create = frame == null;
+        if (create)
+        {
+            frame = new JFrame(title);
+            frame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+            frame.addWindowListener(new java.awt.event.WindowAdapter()
+            {
+                public void windowClosed(java.awt.event.WindowEvent e)
+                {
+                    close();
+                }
+            });
+        }
+        final JFrame window = frame;
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                window.getContentPane().removeAll();
+                window.getContentPane().add(next);
+                next.setPreferredSize(new Dimension(width, height));
+                window.pack();
+                if (create)
+                    window.setVisible(true);
+            }
+        });
+    }
+
+    /**
+     * Runs on the event thread at most once per frame: repaints everything
+     * changed since the last call, or stops the timer if nothing has.
+     */
+    private void repaintDirty()
+    {
+        Rectangle area;
+        Surface target;
+        synchronized (this)
+        {
+            area = dirty;
+            dirty = null;
+            target = surface;
+            if (area == null)
+            {
+                timer.stop();
+                return;
+            }
+            lastRepaint = System.nanoTime();
+        }
+        target.repaint(area);
+    }
+
+    // The panel drawing the compatible image.
+    private static class Surface extends JPanel
+    {
+        private static final long serialVersionUID = 123L;
+        final BufferedImage back;
+
+        Surface(BufferedImage back)
+        {
+            this.back = back;
+            setOpaque(true);
+        }
+
+        public void paintComponent(Graphics g)
+        {
+            // Only the clip (the repainted area) is actually drawn.
+            synchronized (back)
+            {
+                g.drawImage(back, 0, 0, null);
+            }
+        }
+    }
+}
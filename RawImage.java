@@ -0,0 +1,353 @@
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes the uncompressed raw image format used to hand images
+ * between pipeline stages.  A raw file is a 32 byte header followed by the
+ * samples, one unsigned byte each:
+ *
+ * <pre>
+ *  offset  size  field
+ *       0     4  magic "EZRW"
+ *       4     2  format version (1)
+ *       6     1  layout: 0 = interleaved (RGBRGB...), 1 = planar (RR..GG..BB..)
+ *       7     1  number of bands: 1 (gray), 3 (RGB) or 4 (RGBA)
+ *       8     4  width in pixels
+ *      12     4  height in pixels
+ *      16     4  offset of the first sample from the start of the file
+ *      20    12  reserved, zero
+ * </pre>
+ *
+ * All header fields are big-endian.  Rows are stored top to bottom with no
+ * padding.
+ *
+ * @author shreya-va
+ */
+class RawImage
+{
+    static final int INTERLEAVED = 0;
+    static final int PLANAR = 1;
+
+    private static final int MAGIC = 0x455A5257;   // "EZRW"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * Maps the raw file into memory and returns an image whose raster reads
+     * the mapped pages directly.  The mapping is private: changing the
+     * image's pixels does not change the file.  If the file cannot be
+     * opened for writing the mapping is read-only, and changing the pixels
+     * throws a ReadOnlyBufferException.
+     *
+     * @param  file  the raw file
+     * @return       an image backed by the mapped file
+     * @throws       IOException if the file cannot be read or is not a raw
+     *               image
+     */
+    static BufferedImage map(File file) throws IOException
+    {
+        FileChannel channel;
+        FileChannel.MapMode mode = FileChannel.MapMode.PRIVATE;
+        try
+        {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+        }
+        catch (AccessDeniedException e)
+        {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            mode = FileChannel.MapMode.READ_ONLY;
+        }
+
+        // The mapping stays valid after the channel is closed.
+        try
+        {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining())
+                if (channel.read(header, header.position()) < 0)
+                    throw new IOException("Truncated raw image header");
+            header.flip();
+
+            if (header.getInt() != MAGIC)
+                throw new IOException(file.getName() + " is not a raw image");
+            if (header.getShort() != VERSION)
+                throw new IOException("Unsupported raw image version");
+            int layout = header.get();
+            int bands = header.get();
+            int width = header.getInt();
+            int height = header.getInt();
+            int offset = header.getInt();
+
+            if ((layout != INTERLEAVED && layout != PLANAR) ||
+                (bands != 1 && bands != 3 && bands != 4) ||
+                width <= 0 || height <= 0 || offset < HEADER_SIZE)
+                throw new IOException("Corrupt raw image header");
+            long samples = (long)width * height * bands;
+            if (samples > Integer.MAX_VALUE)
+                throw new IOException("Raw image is too large to map");
+            if (offset + samples > channel.size())
+                throw new IOException("Truncated raw image data");
+
+            ByteBuffer data = channel.map(mode, offset, samples);
+            return wrap(data, width, height, bands, layout);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns an image whose samples are the bytes of the buffer, starting
+     * at its position, in the given layout.  Nothing is copied.
+     *
+     * @param  data    the samples
+     * @param  width   the width of the image
+     * @param  height  the height of the image
+     * @param  bands   1, 3 or 4
+     * @param  layout  INTERLEAVED or PLANAR
+     * @return         an image over the buffer
+     */
+    static BufferedImage wrap(ByteBuffer data, int width, int height,
+                              int bands, int layout)
+    {
+        int size = width * height * bands;
+        DataBuffer buffer = new ByteBufferDataBuffer(data, size);
+
+        SampleModel model;
+        int[] offsets = new int[bands];
+        if (layout == INTERLEAVED)
+        {
+            for (int b = 0; b < bands; b++)
+                offsets[b] = b;
+            model = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE,
+                        width, height, bands, width * bands, offsets);
+        }
+        else
+        {
+            for (int b = 0; b < bands; b++)
+                offsets[b] = b * width * height;
+            model = new BandedSampleModel(DataBuffer.TYPE_BYTE, width, height,
+                        width, new int[bands], offsets);
+        }
+
+        WritableRaster raster = Raster.createWritableRaster(model, buffer, null);
+        ColorSpace space = ColorSpace.getInstance(bands == 1 ?
+                ColorSpace.CS_GRAY : ColorSpace.CS_sRGB);
+        boolean alpha = bands == 4;
+        ColorModel colors = new ComponentColorModel(space, alpha, false,
+                alpha ? ColorModel.TRANSLUCENT : ColorModel.OPAQUE,
+                DataBuffer.TYPE_BYTE);
+        return new BufferedImage(colors, raster, false, null);
+    }
+
+    /**
+     * Writes the image as a raw file with one bulk channel write of the
+     * header and the samples.  If the image already stores its samples as
+     * tightly packed bytes in the requested layout they are written as they
+     * are; otherwise they are gathered into one array first.  Images that
+     * are not 8-bit gray, RGB or RGBA, such as indexed, 16-bit or
+     * gray-and-alpha images, are converted to one of those first.
+     *
+     * @param  image   the image to write
+     * @param  file    the file to create or replace
+     * @param  layout  INTERLEAVED or PLANAR
+     * @throws         IOException if the file cannot be written
+     */
+    static void write(BufferedImage image, File file, int layout)
+        throws IOException
+    {
+        if (layout != INTERLEAVED && layout != PLANAR)
+            throw new IllegalArgumentException("Invalid layout.");
+
+        WritableRaster raster = toEightBit(image).getRaster();
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int bands = raster.getNumBands();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+            .order(ByteOrder.BIG_ENDIAN);
+        header.putInt(MAGIC).putShort(VERSION).put((byte)layout)
+              .put((byte)bands).putInt(width).putInt(height)
+              .putInt(HEADER_SIZE);
+        header.clear();
+
+        ByteBuffer data = packed(raster, layout);
+        if (data == null)
+            data = ByteBuffer.wrap(gather(raster, layout));
+
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try
+        {
+            ByteBuffer[] parts = { header, data };
+            while (data.hasRemaining())
+                channel.write(parts);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns the image itself if its bands are 1, 3 or 4 unsigned 8-bit
+     * samples that hold the gray, red, green, blue and alpha values as they
+     * are, or else a converted copy that does.
+     */
+    private static BufferedImage toEightBit(BufferedImage image)
+    {
+        ColorModel colors = image.getColorModel();
+        if (colors instanceof IndexColorModel)
+            return EzImage.expandIndexed(image);
+
+        WritableRaster raster = image.getRaster();
+        int bands = raster.getNumBands();
+        boolean plain = (bands == 1 || bands == 3 || bands == 4) &&
+                        !colors.isAlphaPremultiplied();
+        for (int size : raster.getSampleModel().getSampleSize())
+            plain &= size == 8;
+        if (plain)
+            return image;
+
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        BufferedImage result;
+        if (colors.getColorSpace().getType() == ColorSpace.TYPE_GRAY)
+        {
+            // Scale the samples directly; drawing would convert the grays
+            // to a linear gray scale.
+            int out = colors.hasAlpha() ? 4 : 1;
+            result = new BufferedImage(width, height, out == 4 ?
+                    BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_BYTE_GRAY);
+            WritableRaster target = result.getRaster();
+            int[] row = new int[width];
+            for (int b = 0; b < bands; b++)
+            {
+                int max = (1 << raster.getSampleModel().getSampleSize(b)) - 1;
+                for (int y = 0; y < height; y++)
+                {
+                    raster.getSamples(0, y, width, 1, b, row);
+                    for (int x = 0; x < width; x++)
+                        row[x] = (row[x] * 255 + max / 2) / max;
+                    if (b == 0)
+                        for (int k = 0; k < Math.min(out, 3); k++)
+                            target.setSamples(0, y, width, 1, k, row);
+                    else
+                        target.setSamples(0, y, width, 1, 3, row);
+                }
+            }
+            return result;
+        }
+        result = new BufferedImage(width, height, colors.hasAlpha() ?
+                BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++)
+        {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            result.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the raster's samples as a buffer if they are already stored
+     * as unsigned bytes in exactly the raw layout, or null otherwise.
+     */
+    private static ByteBuffer packed(WritableRaster raster, int layout)
+    {
+        if (raster.getParent() != null ||
+            raster.getSampleModelTranslateX() != 0 ||
+            raster.getSampleModelTranslateY() != 0)
+            return null;
+
+        SampleModel model = raster.getSampleModel();
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int bands = raster.getNumBands();
+        int[] offsets;
+        if (layout == INTERLEAVED && model instanceof PixelInterleavedSampleModel)
+        {
+            PixelInterleavedSampleModel m = (PixelInterleavedSampleModel)model;
+            if (m.getPixelStride() != bands ||
+                m.getScanlineStride() != width * bands)
+                return null;
+            offsets = m.getBandOffsets();
+            for (int b = 0; b < bands; b++)
+                if (offsets[b] != b)
+                    return null;
+        }
+        else if (layout == PLANAR && model instanceof BandedSampleModel)
+        {
+            BandedSampleModel m = (BandedSampleModel)model;
+            if (m.getScanlineStride() != width)
+                return null;
+            offsets = m.getBandOffsets();
+            int[] banks = m.getBankIndices();
+            for (int b = 0; b < bands; b++)
+                if (banks[b] != 0 || offsets[b] != b * width * height)
+                    return null;
+        }
+        else
+        {
+            return null;
+        }
+
+        int size = width * height * bands;
+        DataBuffer buffer = raster.getDataBuffer();
+        if (buffer.getOffset() != 0)
+            return null;
+        if (buffer instanceof DataBufferByte)
+            return ByteBuffer.wrap(((DataBufferByte)buffer).getData(), 0, size);
+        if (buffer instanceof ByteBufferDataBuffer)
+        {
+            ByteBuffer data = ((ByteBufferDataBuffer)buffer).getBuffer();
+            data.limit(size);
+            return data;
+        }
+        return null;
+    }
+
+    /**
+     * Copies the raster's samples into a new array in the raw layout, one
+     * row at a time.
+     */
+    private static byte[] gather(WritableRaster raster, int layout)
+    {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int bands = raster.getNumBands();
+        int minX = raster.getMinX();
+        int minY = raster.getMinY();
+        byte[] data = new byte[width * height * bands];
+        int[] row = new int[width * bands];
+        for (int i = 0; i < height; i++)
+        {
+            if (layout == INTERLEAVED)
+            {
+                raster.getPixels(minX, minY + i, width, 1, row);
+                int base = i * width * bands;
+                for (int j = 0; j < row.length; j++)
+                    data[base + j] = (byte)row[j];
+            }
+            else
+            {
+                for (int b = 0; b < bands; b++)
+                {
+                    raster.getSamples(minX, minY + i, width, 1, b, row);
+                    int base = (b * height + i) * width;
+                    for (int j = 0; j < width; j++)
+                        data[base + j] = (byte)row[j];
+                }
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,292 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The ReportWriter class writes sales tables and summaries through one
+ * large reusable buffer to a channel, either standard output or a file.
+ * Numbers are formatted digit by digit straight into the buffer, so
+ * writing a row creates no Strings, and the channel is only touched when
+ * the buffer fills up or the writer is flushed.
+ *
+ * Two layouts are supported.  FIXED_WIDTH produces the same table as the
+ * Sales program, each row being the id and the amount after fixed runs of
+ * spaces.  CSV produces one comma separated line per row.
+ *
+ * @author shreya-va
+ */
+public class ReportWriter implements Closeable, Flushable
+{
+    public static final int FIXED_WIDTH = -3001;
+    public static final int CSV = -3002;
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 18;
+    // The spaces before the id and between the id and the amount of a
+    // FIXED_WIDTH row, as the Sales program has always printed them.
+    private static final String ROW_INDENT = "     ";
+    private static final String COLUMN_GAP = "         ";
+
+    private final WritableByteChannel channel;
+    private final boolean ownsChannel;
+    private final boolean stdout;
+    private final int layout;
+    private final byte[] buffer;
+    private final ByteBuffer view;
+    private int position;
+    private final byte[] digits = new byte[20];
+
+    /**
+     * Constructs a ReportWriter that writes to the given channel.  The
+     * channel is closed when the writer is closed.
+     *
+     * @param  channel     the channel to write to
+     * @param  layout      either FIXED_WIDTH or CSV
+     * @param  bufferSize  the size of the buffer in bytes
+     * @throws             IllegalArgumentException if the layout is invalid
+     */
+    public ReportWriter(WritableByteChannel channel, int layout, int bufferSize)
+    {
+        this(channel, layout, bufferSize, true, false);
+    }
+
+    private ReportWriter(WritableByteChannel channel, int layout,
+                         int bufferSize, boolean ownsChannel, boolean stdout)
+    {
+        if (layout != FIXED_WIDTH && layout != CSV)
+            throw new IllegalArgumentException("Invalid layout.");
+        if (bufferSize < digits.length)
+            throw new IllegalArgumentException("Buffer is too small.");
+
+        this.channel = channel;
+        this.layout = layout;
+        this.ownsChannel = ownsChannel;
+        this.stdout = stdout;
+        this.buffer = new byte[bufferSize];
+        this.view = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Returns a ReportWriter for standard output.  Closing it flushes the
+     * buffer but leaves standard output open.
+     *
+     * @param  layout  either FIXED_WIDTH or CSV
+     * @return         a writer for standard output
+     */
+    public static ReportWriter toStdout(int layout)
+    {
+        FileChannel out = new FileOutputStream(FileDescriptor.out).getChannel();
+        return new ReportWriter(out, layout, DEFAULT_BUFFER_SIZE, false, true);
+    }
+
+    /**
+     * Returns a ReportWriter that creates (or truncates) the named file.
+     *
+     * @param  filename  the name of the file to write
+     * @param  layout    either FIXED_WIDTH or CSV
+     * @return           a writer for the file
+     * @throws           IOException if the file cannot be opened
+     */
+    public static ReportWriter toFile(String filename, int layout)
+        throws IOException
+    {
+        FileChannel out = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new ReportWriter(out, layout, DEFAULT_BUFFER_SIZE, true, false);
+    }
+
+    /**
+     * Returns the layout of this writer.
+     *
+     * @return   either FIXED_WIDTH or CSV
+     */
+    public int getLayout()
+    {
+        return layout;
+    }
+
+    private void ensure(int bytes) throws IOException
+    {
+        if (buffer.length - position < bytes)
+            drain();
+    }
+
+    private void drain() throws IOException
+    {
+        if (stdout)
+            System.out.flush();
+        view.limit(position).position(0);
+        while (view.hasRemaining())
+            channel.write(view);
+        position = 0;
+    }
+
+    /**
+     * Writes text.  Only characters below 256 are supported; the report
+     * text is plain ASCII.
+     *
+     * @param  text  the text to write
+     * @return       this writer
+     * @throws       IOException if the channel cannot be written
+     */
+    public ReportWriter write(String text) throws IOException
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            ensure(1);
+            buffer[position++] = (byte)text.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a number in decimal.
+     *
+     * @param  value  the number to write
+     * @return        this writer
+     * @throws        IOException if the channel cannot be written
+     */
+    public ReportWriter write(long value) throws IOException
+    {
+        int n = toDigits(value);
+        ensure(n);
+        System.arraycopy(digits, digits.length - n, buffer, position, n);
+        position += n;
+        return this;
+    }
+
+    /**
+     * Fills the end of the digits array with the decimal form of value and
+     * returns how many bytes were used.
+     */
+    private int toDigits(long value)
+    {
+        int pos = digits.length;
+        boolean negative = value < 0;
+        // Work with the negative value so that Long.MIN_VALUE fits.
+        if (!negative)
+            value = -value;
+        do
+        {
+            digits[--pos] = (byte)('0' - (value % 10));
+            value /= 10;
+        } while (value != 0);
+        if (negative)
+            digits[--pos] = (byte)'-';
+        return digits.length - pos;
+    }
+
+    /**
+     * Ends the current line.
+     *
+     * @return   this writer
+     * @throws   IOException if the channel cannot be written
+     */
+    public ReportWriter newLine() throws IOException
+    {
+        ensure(1);
+        buffer[position++] = (byte)'\n';
+        return this;
+    }
+
+    /**
+     * Writes the table header.  In FIXED_WIDTH layout this is the titles
+     * followed by a dashed rule; in CSV layout it is the titles separated
+     * by a comma.
+     *
+     * @param  keyTitle    the title of the id column, e.g. "Salesperson"
+     * @param  valueTitle  the title of the amount column, e.g. "Sales"
+     * @throws             IOException if the channel cannot be written
+     */
+    public void header(String keyTitle, String valueTitle) throws IOException
+    {
+        if (layout == CSV)
+        {
+            write(keyTitle).write(",").write(valueTitle).newLine();
+        }
+        else
+        {
+            newLine().write(keyTitle).write("   ").write(valueTitle).newLine();
+            write("--------------------").newLine();
+        }
+    }
+
+    /**
+     * Writes one table row.
+     *
+     * @param  key    the id of the row
+     * @param  value  the amount of the row
+     * @throws        IOException if the channel cannot be written
+     */
+    public void row(long key, long value) throws IOException
+    {
+        if (layout == CSV)
+        {
+            write(key).write(",").write(value).newLine();
+        }
+        else
+        {
+            write(ROW_INDENT).write(key).write(COLUMN_GAP).write(value)
+                .newLine();
+        }
+    }
+
+    /**
+     * Writes one summary line, such as the total or the average.  In
+     * FIXED_WIDTH layout the label is written as given, preceded by a blank
+     * line; in CSV layout any trailing colon and spaces are dropped from the
+     * label.
+     *
+     * @param  label  the label, e.g. "Total sales: "
+     * @param  value  the value to report
+     * @throws        IOException if the channel cannot be written
+     */
+    public void summary(String label, long value) throws IOException
+    {
+        if (layout == CSV)
+        {
+            int end = label.length();
+            while (end > 0 && (label.charAt(end - 1) == ' ' ||
+                               label.charAt(end - 1) == ':'))
+                end--;
+            for (int i = 0; i < end; i++)
+            {
+                ensure(1);
+                buffer[position++] = (byte)label.charAt(i);
+            }
+            write(",").write(value).newLine();
+        }
+        else
+        {
+            newLine().write(label).write(value).newLine();
+        }
+    }
+
+    /**
+     * Writes everything buffered so far to the channel.  When writing to
+     * standard output, System.out is flushed first so that text printed
+     * through it keeps its order.
+     *
+     * @throws   IOException if the channel cannot be written
+     */
+    public void flush() throws IOException
+    {
+        drain();
+    }
+
+    /**
+     * Flushes the buffer and closes the channel, unless it is standard
+     * output.
+     *
+     * @throws   IOException if the channel cannot be written or closed
+     */
+    public void close() throws IOException
+    {
+        flush();
+        if (ownsChannel)
+            channel.close();
+    }
+}
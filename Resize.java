@@ -0,0 +1,320 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The Resize class scales images to a new width and height.
+ *
+ * Scaling is done separately along rows and then along columns.  For each
+ * direction a table is built once holding, for every output pixel, the
+ * first input pixel it reads and the fixed-point weights of the input
+ * pixels it reads from there, so the inner loops are only integer
+ * multiply-adds.  Rows are processed in parallel.
+ *
+ * Large reductions first halve the image with a 2x2 average as many times
+ * as needed to come within a small factor of the target, then finish with
+ * the requested filter.  Each halving reads every pixel once, so shrinking
+ * a photograph to a thumbnail costs little more than reading it.
+ *
+ * @author shreya-va
+ */
+public class Resize
+{
+    // Resampling filters.
+    public static final int NEAREST = -4001;
+    public static final int BILINEAR = -4002;
+    public static final int AREA = -4003;
+    public static final int LANCZOS = -4004;
+
+    private static final int BITS = 14;
+    private static final int ONE = 1 << BITS;
+    private static final int LANCZOS_LOBES = 3;
+
+    /**
+     * Returns a copy of the image scaled to the given size.
+     *
+     * @param  image   the image to scale
+     * @param  height  the height (in pixels) of the result
+     * @param  width   the width (in pixels) of the result
+     * @param  filter  NEAREST, BILINEAR, AREA or LANCZOS
+     * @return         the scaled image
+     * @throws         IllegalArgumentException if a size is not positive or
+     *                 the filter is unknown
+     */
+    public static EzImage resize(EzImage image, int height, int width,
+                                 int filter)
+    {
+        int[][] planes = image.getPixelsPlanar();
+        for (int k = 0; k < planes.length; k++)
+            planes[k] = resize(planes[k], image.getWidth(), image.getHeight(),
+                               width, height, filter);
+        return EzImage.fromPlanes(planes, height, width);
+    }
+
+    /**
+     * Returns a copy of the image scaled with area averaging so that its
+     * longer side is maxSize pixels, keeping its aspect ratio.  Images that
+     * already fit are copied unchanged.
+     *
+     * @param  image    the image to scale
+     * @param  maxSize  the largest width or height wanted, in pixels
+     * @return          the scaled image
+     */
+    public static EzImage thumbnail(EzImage image, int maxSize)
+    {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int longest = Math.max(width, height);
+        if (longest <= maxSize)
+            return image.copy();
+        int w = Math.max(1, (int)Math.round((double)width * maxSize / longest));
+        int h = Math.max(1, (int)Math.round((double)height * maxSize / longest));
+        return resize(image, h, w, AREA);
+    }
+
+    /**
+     * Returns one band of pixels scaled to the given size.
+     *
+     * @param  pixels     an array of [height * width] pixels in row-major
+     *                    format, in the range 0-255
+     * @param  width      the width (in pixels) of the band
+     * @param  height     the height (in pixels) of the band
+     * @param  newWidth   the width (in pixels) of the result
+     * @param  newHeight  the height (in pixels) of the result
+     * @param  filter     NEAREST, BILINEAR, AREA or LANCZOS
+     * @return            a new array of [newHeight * newWidth] pixels
+     * @throws            IllegalArgumentException if the array length is
+     *                    not width * height, a size is not positive or the
+     *                    filter is unknown
+     */
+    public static int[] resize(int[] pixels, int width, int height,
+                               int newWidth, int newHeight, int filter)
+    {
+        if (pixels == null || pixels.length != width * height)
+            throw new IllegalArgumentException(
+                    "pixel array doesn't match the image size");
+        if (newWidth < 1 || newHeight < 1)
+            throw new IllegalArgumentException("sizes must be positive");
+        if (filter != NEAREST && filter != BILINEAR && filter != AREA &&
+            filter != LANCZOS)
+            throw new IllegalArgumentException("Invalid filter.");
+
+        if (filter == NEAREST)
+            return nearest(pixels, width, height, newWidth, newHeight);
+
+        // Halve while the reduction is at least twice what the final filter
+        // handles well: 2x for bilinear, 4x for the wider filters.
+        int limit = filter == BILINEAR ? 2 : 4;
+        while (width >= limit * newWidth && height >= limit * newHeight)
+        {
+            pixels = halve(pixels, width, height);
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+        }
+        if (width == newWidth && height == newHeight)
+            return pixels;
+
+        Weights across = new Weights(width, newWidth, filter);
+        Weights down = new Weights(height, newHeight, filter);
+        return resample(pixels, width, height, newWidth, newHeight,
+                        across, down);
+    }
+
+    private static int[] nearest(final int[] in, final int width,
+                                 int height, final int newWidth,
+                                 int newHeight)
+    {
+        final int[] columns = new int[newWidth];
+        for (int x = 0; x < newWidth; x++)
+            columns[x] = (int)(((2L * x + 1) * width) / (2L * newWidth));
+        final int[] out = new int[newWidth * newHeight];
+        IntStream.range(0, newHeight).parallel().forEach(y -> {
+            int from = (int)(((2L * y + 1) * height) / (2L * newHeight)) * width;
+            int to = y * newWidth;
+            for (int x = 0; x < newWidth; x++)
+                out[to + x] = in[from + columns[x]];
+        });
+        return out;
+    }
+
+    /**
+     * Averages each 2x2 block into one pixel.  An odd last row or column is
+     * averaged with itself.
+     */
+    private static int[] halve(final int[] in, final int width, final int height)
+    {
+        final int w = (width + 1) / 2;
+        int h = (height + 1) / 2;
+        final int[] out = new int[w * h];
+        IntStream.range(0, h).parallel().forEach(y -> {
+            int top = 2 * y * width;
+            int bottom = Math.min(2 * y + 1, height - 1) * width;
+            int to = y * w;
+            for (int x = 0; x < w; x++)
+            {
+                int left = 2 * x;
+                int right = Math.min(left + 1, width - 1);
+                out[to + x] = (in[top + left] + in[top + right]
+                             + in[bottom + left] + in[bottom + right] + 2) >> 2;
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Horizontal pass into a buffer of newWidth * height values still
+     * scaled by ONE, then a vertical pass that rounds and clamps.
+     */
+    private static int[] resample(final int[] in, final int width, int height,
+                                  final int newWidth, int newHeight,
+                                  final Weights across, final Weights down)
+    {
+        final int[] buffer = new int[newWidth * height];
+        IntStream.range(0, height).parallel().forEach(y -> {
+            int from = y * width;
+            int to = y * newWidth;
+            int taps = across.taps;
+            for (int x = 0; x < newWidth; x++)
+            {
+                int start = from + across.start[x];
+                int w = x * taps;
+                int sum = 0;
+                for (int k = 0; k < taps; k++)
+                    sum += in[start + k] * across.weights[w + k];
+                buffer[to + x] = sum;
+            }
+        });
+
+        final int[] out = new int[newWidth * newHeight];
+        final long half = 1L << (2 * BITS - 1);
+        IntStream.range(0, newHeight).parallel().forEach(y -> {
+            long[] sums = new long[newWidth];
+            int start = down.start[y];
+            int w = y * down.taps;
+            for (int k = 0; k < down.taps; k++)
+            {
+                int f = down.weights[w + k];
+                if (f == 0)
+                    continue;
+                int from = (start + k) * newWidth;
+                for (int x = 0; x < newWidth; x++)
+                    sums[x] += (long)buffer[from + x] * f;
+            }
+            int to = y * newWidth;
+            for (int x = 0; x < newWidth; x++)
+            {
+                int v = (int)((sums[x] + half) >> (2 * BITS));
+                out[to + x] = v < 0 ? 0 : (v > 255 ? 255 : v);
+            }
+        });
+        return out;
+    }
+
+    /**
+     * The weight table for scaling one direction.  Output pixel i reads
+     * taps input pixels starting at start[i], with fixed-point weights
+     * weights[i*taps ...] that add up to exactly ONE.  Reads past the edge
+     * are folded onto the edge pixel, and shorter windows are padded with
+     * zero weights so every output pixel has the same number of taps.
+     */
+    private static class Weights
+    {
+        final int taps;
+        final int[] start;
+        final int[] weights;
+
+        Weights(int size, int newSize, int filter)
+        {
+            double scale = (double)size / newSize;
+            double stretch = filter == BILINEAR ? 1 : Math.max(1, scale);
+            double support;
+            if (filter == AREA)
+                support = stretch / 2 + 0.5;
+            else
+                support = (filter == LANCZOS ? LANCZOS_LOBES : 1) * stretch;
+
+            int window = Math.min(size, (int)Math.ceil(2 * support) + 1);
+            taps = window;
+            start = new int[newSize];
+            weights = new int[newSize * window];
+            double[] values = new double[window];
+
+            for (int i = 0; i < newSize; i++)
+            {
+                double centre = (i + 0.5) * scale;
+                int lo = (int)Math.floor(centre - support);
+                int hi = (int)Math.ceil(centre + support);
+                int first = Math.max(0, Math.min(lo, size - window));
+                Arrays.fill(values, 0);
+                double total = 0;
+                for (int j = lo; j < hi; j++)
+                {
+                    double v = weight(filter, j + 0.5 - centre, scale, stretch);
+                    if (v == 0)
+                        continue;
+                    int index = Math.max(0, Math.min(size - 1, j)) - first;
+                    if (index < 0 || index >= window)
+                        continue;
+                    values[index] += v;
+                    total += v;
+                }
+                if (total == 0)
+                {
+                    // Nothing in range; take the nearest pixel.
+                    int j = Math.max(0, Math.min(size - 1, (int)centre));
+                    values[j - first] = 1;
+                    total = 1;
+                }
+
+                start[i] = first;
+                int w = i * window;
+                int sum = 0;
+                int largest = 0;
+                for (int k = 0; k < window; k++)
+                {
+                    int f = (int)Math.round(values[k] / total * ONE);
+                    weights[w + k] = f;
+                    sum += f;
+                    if (Math.abs(f) > Math.abs(weights[w + largest]))
+                        largest = k;
+                }
+                weights[w + largest] += ONE - sum;
+            }
+        }
+
+        /**
+         * The weight of an input pixel whose centre is distance d (in input
+         * pixels) from the centre of the output pixel.
+         */
+        private static double weight(int filter, double d, double scale,
+                                     double stretch)
+        {
+            double x = Math.abs(d) / stretch;
+            switch (filter)
+            {
+                case BILINEAR:
+                    return x < 1 ? 1 - x : 0;
+                case AREA:
+                {
+                    // Overlap of input pixel [d-0.5, d+0.5) with the output
+                    // pixel's footprint [-scale/2, scale/2) when shrinking,
+                    // or the reverse when enlarging.
+                    double half = Math.max(scale, 1) / 2;
+                    double inner = Math.min(scale, 1) / 2;
+                    double a = Math.abs(d);
+                    return Math.max(0, Math.min(a + inner, half)
+                                       - Math.max(a - inner, -half));
+                }
+                default:
+                    if (x == 0)
+                        return 1;
+                    if (x >= LANCZOS_LOBES)
+                        return 0;
+                    double px = Math.PI * x;
+                    return LANCZOS_LOBES * Math.sin(px)
+                           * Math.sin(px / LANCZOS_LOBES) / (px * px);
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The SalesAggregator class stores sales records column by column and
+ * totals them grouped by salesperson, region, product or date.  Each record
+ * carries an int code for every dimension plus the sale amount.
+ *
+ * Grouping splits the records into chunks, totals each chunk into its own
+ * LongSumMap in parallel and then merges the partial maps, so no lock is
+ * taken while records are being scanned.
+ *
+ * @author shreya-va
+ */
+public class SalesAggregator
+{
+    // Dimension identifiers, following the same convention as the band
+    // constants in EzImage: negative and large in magnitude so they are not
+    // confused with a record index or a dimension code.
+    public static final int SALESPERSON = -2001;
+    public static final int REGION = -2002;
+    public static final int PRODUCT = -2003;
+    public static final int DATE = -2004;
+
+    // Records per partial map; smaller inputs are totalled on one thread.
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private int[] salesperson;
+    private int[] region;
+    private int[] product;
+    private int[] date;
+    private int[] amount;
+    private int size;
+
+    /**
+     * Constructs an empty aggregator.
+     */
+    public SalesAggregator()
+    {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty aggregator with room for the given number of
+     * records before it has to grow.
+     *
+     * @param  capacity  the initial number of records
+     */
+    public SalesAggregator(int capacity)
+    {
+        salesperson = new int[capacity];
+        region = new int[capacity];
+        product = new int[capacity];
+        date = new int[capacity];
+        amount = new int[capacity];
+    }
+
+    /**
+     * Constructs an aggregator from per-salesperson totals, as read by the
+     * Sales program.  The salesperson code of each record is its index in
+     * the array and every other dimension is 0.
+     *
+     * @param  sales  the sale amount for each salesperson
+     */
+    public SalesAggregator(int[] sales)
+    {
+        this(sales.length);
+        for (int i = 0; i < sales.length; i++)
+            add(i, 0, 0, 0, sales[i]);
+    }
+
+    /**
+     * Appends one sales record.
+     *
+     * @param  salespersonId  the salesperson code
+     * @param  regionId       the region code
+     * @param  productId      the product code
+     * @param  dateCode       the date code, for example 20260131
+     * @param  saleAmount     the amount of the sale
+     */
+    public void add(int salespersonId, int regionId, int productId,
+                    int dateCode, int saleAmount)
+    {
+        if (size == amount.length)
+        {
+            int capacity = Math.max(16, size * 2);
+            salesperson = Arrays.copyOf(salesperson, capacity);
+            region = Arrays.copyOf(region, capacity);
+            product = Arrays.copyOf(product, capacity);
+            date = Arrays.copyOf(date, capacity);
+            amount = Arrays.copyOf(amount, capacity);
+        }
+        salesperson[size] = salespersonId;
+        region[size] = regionId;
+        product[size] = productId;
+        date[size] = dateCode;
+        amount[size] = saleAmount;
+        size++;
+    }
+
+    /**
+     * Returns the number of records.
+     *
+     * @return   the number of records added
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    private int[] column(int dimension)
+    {
+        switch (dimension)
+        {
+            case SALESPERSON:
+                return salesperson;
+            case REGION:
+                return region;
+            case PRODUCT:
+                return product;
+            case DATE:
+                return date;
+            default:
+                throw new IllegalArgumentException("Invalid dimension.");
+        }
+    }
+
+    /**
+     * Returns the total and count of sales for each code of a dimension.
+     *
+     * @param  dimension  one of SALESPERSON, REGION, PRODUCT or DATE
+     * @return            a map from dimension code to total sales
+     * @throws            IllegalArgumentException if the dimension is invalid
+     */
+    public LongSumMap groupBy(int dimension)
+    {
+        return aggregate(column(dimension), null);
+    }
+
+    /**
+     * Returns the total and count of sales for each combination of codes
+     * of two dimensions.  The key of the result holds the first code in its
+     * upper 32 bits and the second code in its lower 32 bits; use
+     * firstCode and secondCode to take it apart.
+     *
+     * @param  first   one of SALESPERSON, REGION, PRODUCT or DATE
+     * @param  second  one of SALESPERSON, REGION, PRODUCT or DATE
+     * @return         a map from combined code to total sales
+     * @throws         IllegalArgumentException if a dimension is invalid
+     */
+    public LongSumMap groupBy(int first, int second)
+    {
+        return aggregate(column(first), column(second));
+    }
+
+    /**
+     * Returns the first code packed into a key produced by groupBy(int,int).
+     *
+     * @param  key  a combined key
+     * @return      the code of the first dimension
+     */
+    public static int firstCode(long key)
+    {
+        return (int)(key >> 32);
+    }
+
+    /**
+     * Returns the second code packed into a key produced by groupBy(int,int).
+     *
+     * @param  key  a combined key
+     * @return      the code of the second dimension
+     */
+    public static int secondCode(long key)
+    {
+        return (int)key;
+    }
+
+    private LongSumMap aggregate(final int[] high, final int[] low)
+    {
+        final int n = size;
+        int chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (chunks <= 1)
+            return aggregateRange(high, low, 0, n);
+
+        return IntStream.range(0, chunks).parallel()
+            .mapToObj(c -> aggregateRange(high, low, c * CHUNK_SIZE,
+                                          Math.min(n, (c + 1) * CHUNK_SIZE)))
+            .reduce((a, b) -> a.size() >= b.size() ? a.merge(b) : b.merge(a))
+            .get();
+    }
+
+    private LongSumMap aggregateRange(int[] high, int[] low, int from, int to)
+    {
+        LongSumMap partial = new LongSumMap();
+        if (low == null)
+        {
+            for (int i = from; i < to; i++)
+                partial.add(high[i], amount[i]);
+        }
+        else
+        {
+            for (int i = from; i < to; i++)
+                partial.add(((long)high[i] << 32) | (low[i] & 0xFFFFFFFFL),
+                            amount[i]);
+        }
+        return partial;
+    }
+
+    private static String dimensionName(int dimension)
+    {
+        switch (dimension)
+        {
+            case SALESPERSON:
+                return "Salesperson";
+            case REGION:
+                return "Region";
+            case PRODUCT:
+                return "Product";
+            case DATE:
+                return "Date";
+            default:
+                throw new IllegalArgumentException("Invalid dimension.");
+        }
+    }
+
+    /**
+     * Prints the total sales for each code of a dimension, in the same
+     * tabular style as the Sales report, ordered by code.
+     *
+     * @param  dimension  one of SALESPERSON, REGION, PRODUCT or DATE
+     * @throws            IOException if standard output cannot be written
+     */
+    public void printReport(int dimension) throws IOException
+    {
+        ReportWriter out = ReportWriter.toStdout(ReportWriter.FIXED_WIDTH);
+        writeReport(dimension, out);
+        out.close();
+    }
+
+    /**
+     * Writes the total sales for each code of a dimension, ordered by code,
+     * followed by the overall total.
+     *
+     * @param  dimension  one of SALESPERSON, REGION, PRODUCT or DATE
+     * @param  out        the writer that receives the report
+     * @throws            IOException if the report cannot be written
+     */
+    public void writeReport(int dimension, ReportWriter out) throws IOException
+    {
+        LongSumMap totals = groupBy(dimension);
+        out.header(dimensionName(dimension), "Sales");
+        long sum = 0;
+        for (long key : totals.sortedKeys())
+        {
+            out.row(key, totals.getSum(key));
+            sum += totals.getSum(key);
+        }
+        out.summary("Total sales: ", sum);
+    }
+}
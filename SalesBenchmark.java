@@ -0,0 +1,179 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * SalesBenchmark.java
+ *
+ * Measures ingestion and aggregation of sales records for each storage
+ * strategy in the lab: the int[] used by Sales, the ArrayList&lt;Integer&gt;
+ * used by SalesArrayList, and the columnar, parallel SalesAggregator.
+ *
+ * For every record count and strategy it reports the median time per
+ * operation, the bytes allocated per operation and the heap retained by
+ * the ingested data after a full collection.  Allocation is summed over
+ * all live threads, so the parallel work of SalesAggregator is counted;
+ * a thread that ends during a measurement takes its count with it, which
+ * the common pool's long-lived workers do not.  Each
+ * measurement is preceded by warmup runs so that the JIT has compiled the
+ * code being timed.
+ *
+ * Usage: java -Xmx8g SalesBenchmark [maxRecords]
+ * Record counts go from 1,000 up to maxRecords (default 10,000,000) in
+ * powers of ten.  100,000,000 records needs a heap of several gigabytes for
+ * the ArrayList strategy.
+ *
+ * @author shreya-va
+ */
+public class SalesBenchmark
+{
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 5;
+    private static final int REGIONS = 64;
+    private static final int COMPARE_VALUE = 500;
+
+    private static final MemoryMXBean MEMORY =
+        ManagementFactory.getMemoryMXBean();
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    // Results are stored here so the JIT cannot discard the work.
+    private static Object sink;
+    private static long checksum;
+
+    private interface Task<T>
+    {
+        T run();
+    }
+
+    public static void main(String[] args)
+    {
+        long maxRecords = args.length > 0 ? Long.parseLong(args[0]) : 10000000;
+
+        System.out.printf("%-12s %-20s %-10s %14s %16s %16s%n", "Records",
+                          "Strategy", "Operation", "Time (ms)",
+                          "Alloc (bytes)", "Retained (bytes)");
+        for (long n = 1000; n <= maxRecords; n *= 10)
+            run((int)n);
+        System.out.println("checksum " + checksum);
+    }
+
+    private static void run(int n)
+    {
+        Random random = new Random(n);
+        final int[] source = new int[n];
+        for (int i = 0; i < n; i++)
+            source[i] = random.nextInt(1000);
+
+        // int[] as in Sales
+        Task<int[]> ingestArray = () -> {
+            int[] sales = new int[source.length];
+            for (int i = 0; i < sales.length; i++)
+                sales[i] = source[i];
+            return sales;
+        };
+        final int[] array = ingestArray.run();
+        report(n, "int[]", "ingest", ingestArray, retained(ingestArray));
+        report(n, "int[]", "aggregate",
+               () -> new SalesReport(array, COMPARE_VALUE), -1);
+
+        // ArrayList<Integer> as in SalesArrayList
+        Task<ArrayList<Integer>> ingestList = () -> {
+            ArrayList<Integer> sales = new ArrayList<Integer>();
+            for (int i = 0; i < source.length; i++)
+                sales.add(source[i]);
+            return sales;
+        };
+        final ArrayList<Integer> list = ingestList.run();
+        report(n, "ArrayList<Integer>", "ingest", ingestList,
+               retained(ingestList));
+        report(n, "ArrayList<Integer>", "aggregate",
+               () -> new SalesReport(list, COMPARE_VALUE), -1);
+        list.clear();
+
+        // Columnar records grouped in parallel
+        Task<SalesAggregator> ingestColumns = () -> {
+            SalesAggregator sales = new SalesAggregator(source.length);
+            for (int i = 0; i < source.length; i++)
+                sales.add(i, i % REGIONS, 0, 0, source[i]);
+            return sales;
+        };
+        final SalesAggregator columns = ingestColumns.run();
+        report(n, "SalesAggregator", "ingest", ingestColumns,
+               retained(ingestColumns));
+        report(n, "SalesAggregator", "group",
+               () -> columns.groupBy(SalesAggregator.REGION), -1);
+    }
+
+    private static void report(int n, String strategy, String operation,
+                               Task<?> task, long retained)
+    {
+        for (int i = 0; i < WARMUP_RUNS; i++)
+            consume(task.run());
+
+        long[] times = new long[MEASURED_RUNS];
+        long allocated = 0;
+        for (int i = 0; i < MEASURED_RUNS; i++)
+        {
+            Map<Long, Long> before = allocatedBytes();
+            long start = System.nanoTime();
+            consume(task.run());
+            times[i] = System.nanoTime() - start;
+            for (Map.Entry<Long, Long> entry : allocatedBytes().entrySet())
+                allocated += entry.getValue() -
+                             before.getOrDefault(entry.getKey(), 0L);
+        }
+        Arrays.sort(times);
+        sink = null;
+
+        System.out.printf("%-12d %-20s %-10s %14.3f %16d %16s%n", n, strategy,
+                          operation, times[MEASURED_RUNS / 2] / 1e6,
+                          allocated / MEASURED_RUNS,
+                          retained < 0 ? "-" : Long.toString(retained));
+    }
+
+    /**
+     * Returns how much more heap is in use, after a full collection, while
+     * the result of the task is still reachable.
+     */
+    private static long retained(Task<?> task)
+    {
+        long before = usedAfterGc();
+        Object result = task.run();
+        long after = usedAfterGc();
+        consume(result);
+        sink = null;
+        return Math.max(0, after - before);
+    }
+
+    /**
+     * Returns the bytes allocated so far by each live thread, by thread id.
+     */
+    private static Map<Long, Long> allocatedBytes()
+    {
+        long[] ids = THREADS.getAllThreadIds();
+        long[] bytes = THREADS.getThreadAllocatedBytes(ids);
+        Map<Long, Long> result = new HashMap<Long, Long>();
+        for (int i = 0; i < ids.length; i++)
+            if (bytes[i] >= 0)
+                result.put(ids[i], bytes[i]);
+        return result;
+    }
+
+    private static long usedAfterGc()
+    {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+
+    private static void consume(Object result)
+    {
+        sink = result;
+        checksum += System.identityHashCode(result);
+    }
+}
@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The SalesReport class holds the figures reported by the Sales and
+ * SalesArrayList programs: total, average, maximum and minimum sales and how
+ * many salespeople exceeded a given amount.  It can be built from either an
+ * int[] or a List&lt;Integer&gt; of sales, so the two storage strategies can
+ * be compared without going through the interactive programs.
+ *
+ * The figures are computed exactly as the programs always have: the
+ * maximum and minimum ids are one based, and the minimum is the last sale
+ * that did not raise the maximum.
+ *
+ * @author shreya-va
+ */
+public class SalesReport
+{
+    private final int[] array;
+    private final List<Integer> list;
+    private final int count;
+    private final int compareValue;
+
+    // A long, since a hundred million sales overflow an int.
+    private long sum;
+    private int maximumSale;
+    private int idMaxPerson;
+    private int minimumSale;
+    private int idMinPerson;
+    private int exceedCount;
+
+    /**
+     * Computes the report for sales stored in an array.
+     *
+     * @param  sales         the sale amount for each salesperson
+     * @param  compareValue  the amount to count sales above
+     * @throws               IllegalArgumentException if there are no sales
+     */
+    public SalesReport(int[] sales, int compareValue)
+    {
+        if (sales == null || sales.length == 0)
+            throw new IllegalArgumentException("no sales");
+        this.array = sales;
+        this.list = null;
+        this.count = sales.length;
+        this.compareValue = compareValue;
+
+        maximumSale = sales[0];
+        minimumSale = sales[0];
+        for (int i=0; i<sales.length; i++)
+            accept(i, sales[i]);
+    }
+
+    /**
+     * Computes the report for sales stored in a list.
+     *
+     * @param  sales         the sale amount for each salesperson
+     * @param  compareValue  the amount to count sales above
+     * @throws               IllegalArgumentException if there are no sales
+     */
+    public SalesReport(List<Integer> sales, int compareValue)
+    {
+        if (sales == null || sales.isEmpty())
+            throw new IllegalArgumentException("no sales");
+        this.array = null;
+        this.list = sales;
+        this.count = sales.size();
+        this.compareValue = compareValue;
+
+        maximumSale = sales.get(0);
+        minimumSale = sales.get(0);
+        int i = 0;
+        for (int term : sales)
+            accept(i++, term);
+    }
+
+    private void accept(int i, int sale)
+    {
+        sum += sale;
+        if (compareValue < sale)
+            exceedCount += 1;
+
+        if (maximumSale < sale)
+        {
+            maximumSale = sale;
+            idMaxPerson = i+1;
+        }
+        else
+        {
+            minimumSale = sale;
+            idMinPerson = i+1;
+        }
+    }
+
+    private int get(int i)
+    {
+        return array != null ? array[i] : list.get(i);
+    }
+
+    /**
+     * Returns the total of all sales.
+     * @return   the total of all sales
+     */
+    public long getSum()
+    {
+        return sum;
+    }
+
+    /**
+     * Returns the average sale, rounded down.
+     * @return   the average sale, rounded down
+     */
+    public long getAverage()
+    {
+        return sum / count;
+    }
+
+    /**
+     * Returns the maximum sale.
+     * @return   the maximum sale
+     */
+    public int getMaximumSale()
+    {
+        return maximumSale;
+    }
+
+    /**
+     * Returns the one based id of the salesperson with the maximum sale.
+     * @return   the one based id of the salesperson with the maximum sale
+     */
+    public int getIdMaxPerson()
+    {
+        return idMaxPerson;
+    }
+
+    /**
+     * Returns the minimum sale.
+     * @return   the minimum sale
+     */
+    public int getMinimumSale()
+    {
+        return minimumSale;
+    }
+
+    /**
+     * Returns the one based id of the salesperson with the minimum sale.
+     * @return   the one based id of the salesperson with the minimum sale
+     */
+    public int getIdMinPerson()
+    {
+        return idMinPerson;
+    }
+
+    /**
+     * Returns how many sales exceeded the compare value.
+     * @return   how many sales exceeded the compare value
+     */
+    public int getExceedCount()
+    {
+        return exceedCount;
+    }
+
+    /**
+     * Writes one row per salesperson, each followed by a "Person ID" line
+     * if the sale exceeded the compare value, and then the summary lines.
+     * The table header is not written, since the programs print it before
+     * asking for the compare value.
+     *
+     * @param  out  the writer that receives the report
+     * @throws      IOException if the report cannot be written
+     */
+    public void write(ReportWriter out) throws IOException
+    {
+        for (int i=0; i<count; i++)
+        {
+            int sale = get(i);
+            out.row(i, sale);
+            if (compareValue < sale)
+                out.write("Person ID: ").write(i)
+                   .write(" Amount: ").write(sale).newLine();
+        }
+        out.write("The total amount of people who exceeded ").write(compareValue)
+           .write(" dollars is ").write(exceedCount).newLine();
+        out.summary("Total sales: ", sum);
+        out.summary("Average sales:", getAverage());
+        out.summary("Maximum sales:", maximumSale);
+        out.summary("Maximum sales ID:", idMaxPerson);
+        out.summary("Minimum sales:", minimumSale);
+        out.summary("Minimum sales ID:", idMinPerson);
+    }
+}
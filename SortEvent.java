@@ -0,0 +1,71 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event for one run of a Sorting algorithm.  Like ImageEvent, it
+ * also records the run in Metrics when that is enabled, and costs almost
+ * nothing when neither is in use.
+ *
+ * @author shreya-va
+ */
+@Name("ezimage.Sort")
+@Label("Sort")
+@Category("EzImage")
+@Description("One run of a sorting algorithm")
+class SortEvent extends Event
+{
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Length")
+    int length;
+
+    @Label("Bytes Touched")
+    @DataAmount
+    long bytes;
+
+    // When the sort started, for Metrics; 0 if Metrics is off.
+    private transient long started;
+
+    /**
+     * Returns a new event for a sort that starts now.
+     */
+    static SortEvent start()
+    {
+        SortEvent event = new SortEvent();
+        event.begin();
+        if (Metrics.isEnabled())
+            event.started = System.nanoTime();
+        return event;
+    }
+
+    /**
+     * Ends the sort of an int array of the given length.
+     */
+    void finish(String algorithm, int length)
+    {
+        finish(algorithm, length, 4);
+    }
+
+    /**
+     * Ends the sort of an array of the given length and element size.
+     */
+    void finish(String algorithm, int length, int elementBytes)
+    {
+        long size = (long)elementBytes * length;
+        if (started != 0)
+            Metrics.record(algorithm, System.nanoTime() - started, size);
+        end();
+        if (shouldCommit())
+        {
+            this.algorithm = algorithm;
+            this.length = length;
+            this.bytes = size;
+            commit();
+        }
+    }
+}
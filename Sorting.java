@@ -1,8 +1,11 @@
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 public class Sorting{
     public void selectionSort (int[] numbers){
+        SortEvent event = SortEvent.start();
         int key, temp;
         for(int index = 0;  index < numbers.length-1;  index++){
             key = index;
@@ -14,8 +17,10 @@ public class Sorting{
             numbers[key] = numbers[index];
             numbers[index] = temp;
         }
+        event.finish("Sorting.selectionSort", numbers.length);
     } 
     public static void insertionSort (int [] numbers){
+        SortEvent event = SortEvent.start();
         for(int index = 1; index < numbers.length; index++){
             int key = numbers[index];
             int position = index;
@@ -26,9 +31,11 @@ public class Sorting{
             }
             numbers[position] = key;
         }
+        event.finish("Sorting.insertionSort", numbers.length);
     }
     //Implementation by Shogo
     public static void bucketSort(int[] array){
+        SortEvent event = SortEvent.start();
         int[] queue = new int[256];
         for(int i=0;i<256;i++){
             queue[i] = 0;
@@ -41,8 +48,10 @@ public class Sorting{
             Arrays.fill(array, n, n+queue[i], i);
             n+=queue[i];
         }
+        event.finish("Sorting.bucketSort", array.length);
     }
     public static void radixSortModified(int[] array){
+        SortEvent event = SortEvent.start();
         ArrayList[] queue = new ArrayList[256];
         for(int a=0;a<256;a++){
             queue[a] = new ArrayList<Integer>();
@@ -59,8 +68,10 @@ public class Sorting{
                 n++;
             }
         }
+        event.finish("Sorting.radixSortModified", array.length);
     }
     public static void radixSort(int[] array){
+        SortEvent event = SortEvent.start();
         ArrayList[] queue = new ArrayList[10];
         for (int i=0;i<3;i++){ //looping for three places: 1s, 10s, 100s
             for(int a=0;a<10;a++){
@@ -80,12 +91,14 @@ public class Sorting{
                 }
             }
         }
+        event.finish("Sorting.radixSort", array.length);
     }
     
    /* k = number of digits
        r = base of each digit (i.e., r = 10 for standard base 10) */
    //from http://www.cs.usfca.edu/~galles/cs245/lecture/radixsort.java.html
     public static void radixsort(int array[], int k) {
+       SortEvent event = SortEvent.start();
        int i, j, rtok;
        int[] count = new int[10];
        int[] newarray = new int[array.length];
@@ -102,5 +115,128 @@ public class Sorting{
            for(j=0; j<array.length; j++)
                array[j] = newarray[j]; //copy newarray to array
        }
+       event.finish("Sorting.radixsort", array.length);
    }
+
+    // Bits sorted per pass of radixSortByKey, so that keys of up to 11 bits
+    // (all of the keys PixelSort makes) take a single counting pass.
+    private static final int KEY_DIGIT = 11;
+    // Elements per parallel chunk of radixSortByKey.
+    private static final int KEY_CHUNK = 1 << 16;
+
+    /* Sorts longs by their high half only: bits 32 up to 32+keyBits, read
+       as an unsigned number.  The low 32 bits are carried along as the
+       payload, and elements with equal keys keep their order.  This is an
+       LSD radix sort of KEY_DIGIT bits per pass; large arrays are counted
+       and scattered in parallel chunks. */
+    public static void radixSortByKey(long[] array, int keyBits){
+        SortEvent event = SortEvent.start();
+        checkKeyBits(keyBits);
+        int n = array.length;
+        int chunks = Math.min(n / KEY_CHUNK,
+                4 * ForkJoinPool.getCommonPoolParallelism());
+        if (chunks < 2)
+            sortByKey(array, 0, n, keyBits, new long[n]);
+        else
+            sortByKeyParallel(array, keyBits, chunks);
+        event.finish("Sorting.radixSortByKey", n, 8);
+    }
+
+    /* Like radixSortByKey(array, keyBits), but sorts only array[from] up to
+       array[to-1], on the calling thread, using buffer (which must have at
+       least to-from elements) as scratch space.  For sorting many short
+       lines at once without allocating for each. */
+    public static void radixSortByKey(long[] array, int from, int to,
+                                      int keyBits, long[] buffer){
+        checkKeyBits(keyBits);
+        if (buffer.length < to - from)
+            throw new IllegalArgumentException("buffer is too short");
+        sortByKey(array, from, to, keyBits, buffer);
+    }
+
+    private static void checkKeyBits(int keyBits){
+        if (keyBits < 1 || keyBits > 32)
+            throw new IllegalArgumentException("keyBits must be from 1 to 32");
+    }
+
+    private static void sortByKey(long[] array, int from, int to,
+                                  int keyBits, long[] buffer){
+        int n = to - from;
+        int[] count = new int[1 << KEY_DIGIT];
+        long[] source = array;
+        long[] target = buffer;
+        int sourceStart = from;
+        int targetStart = 0;
+        for (int shift = 32; shift < 32 + keyBits; shift += KEY_DIGIT) {
+            int mask = digitMask(shift, keyBits);
+            Arrays.fill(count, 0);
+            for (int j = sourceStart; j < sourceStart + n; j++)
+                count[(int)(source[j] >>> shift) & mask]++;
+            int position = targetStart;
+            for (int d = 0; d <= mask; d++) {
+                int c = count[d];
+                count[d] = position;
+                position += c;
+            }
+            for (int j = sourceStart; j < sourceStart + n; j++)
+                target[count[(int)(source[j] >>> shift) & mask]++] = source[j];
+            long[] swap = source;
+            source = target;
+            target = swap;
+            int start = sourceStart;
+            sourceStart = targetStart;
+            targetStart = start;
+        }
+        if (source != array)
+            System.arraycopy(source, sourceStart, array, from, n);
+    }
+
+    private static void sortByKeyParallel(long[] array, int keyBits,
+                                          int chunks){
+        int n = array.length;
+        int[][] count = new int[chunks][1 << KEY_DIGIT];
+        long[] buffer = new long[n];
+        long[] source = array;
+        long[] target = buffer;
+        for (int shift = 32; shift < 32 + keyBits; shift += KEY_DIGIT) {
+            final int s = shift;
+            final int mask = digitMask(shift, keyBits);
+            final long[] in = source;
+            final long[] out = target;
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] counts = count[c];
+                Arrays.fill(counts, 0);
+                for (int j = chunkStart(c, chunks, n);
+                     j < chunkStart(c + 1, chunks, n); j++)
+                    counts[(int)(in[j] >>> s) & mask]++;
+            });
+            // Each chunk writes each digit after the earlier chunks, which
+            // is what keeps the sort stable.
+            int position = 0;
+            for (int d = 0; d <= mask; d++)
+                for (int c = 0; c < chunks; c++) {
+                    int k = count[c][d];
+                    count[c][d] = position;
+                    position += k;
+                }
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] next = count[c];
+                for (int j = chunkStart(c, chunks, n);
+                     j < chunkStart(c + 1, chunks, n); j++)
+                    out[next[(int)(in[j] >>> s) & mask]++] = in[j];
+            });
+            source = out;
+            target = in;
+        }
+        if (source != array)
+            System.arraycopy(source, 0, array, 0, n);
+    }
+
+    private static int digitMask(int shift, int keyBits){
+        return (1 << Math.min(KEY_DIGIT, 32 + keyBits - shift)) - 1;
+    }
+
+    private static int chunkStart(int chunk, int chunks, int n){
+        return (int)((long)chunk * n / chunks);
+    }
 }
\ No newline at end of file